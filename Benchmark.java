@@ -0,0 +1,374 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/** A timing harness whose main program may be invoked as follows:
+ *      java gitlet.Benchmark NAME [ARG...]
+ *  where NAME selects one of the benchmarks below.  Benchmarks work on
+ *  synthetic data, kept in memory or in a temporary directory, and do not
+ *  touch any repository.
+ *  @author
+ */
+public class Benchmark {
+
+    /** Run the benchmark named by ARGS[0] with the remaining ARGS. */
+    public static void main(String... args) {
+        if (args.length == 0) {
+            usage();
+        }
+        switch (args[0]) {
+        case "commit-codec":
+            commitCodec(intArg(args, 1, 1000), intArg(args, 2, 200));
+            break;
+        case "merge-base":
+            mergeBase(intArg(args, 1, 100000), intArg(args, 2, 8));
+            break;
+        case "status":
+            status(intArg(args, 1, 100000));
+            break;
+        default:
+            usage();
+        }
+    }
+
+    /** Compare the binary commit encoding with Java serialization on
+     *  NCOMMITS synthetic commits of NFILES files each, reporting sizes
+     *  and encode and decode times per commit. */
+    static void commitCodec(int nCommits, int nFiles) {
+        File dir = tempDir();
+        ObjectStore trees = new ObjectStore(dir);
+        List<Commit> commits = syntheticCommits(trees, nCommits, nFiles);
+        long treeSize = Utils.join(dir, "pack").length();
+
+        List<byte[]> serialized = new ArrayList<>();
+        List<byte[]> encoded = new ArrayList<>();
+        long serializeTime = 0, encodeTime = 0;
+        long deserializeTime = 0, decodeTime = 0;
+        long serializedSize = 0, encodedSize = 0;
+
+        for (int round = 0; round < ROUNDS; round += 1) {
+            serialized.clear();
+            encoded.clear();
+
+            long start = System.nanoTime();
+            for (Commit commit : commits) {
+                serialized.add(Utils.serialize(commit));
+            }
+            serializeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Commit commit : commits) {
+                encoded.add(commit.encode());
+            }
+            encodeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] bytes : serialized) {
+                Commit.decode(ByteBuffer.wrap(bytes));
+            }
+            deserializeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] bytes : encoded) {
+                Commit.decode(ByteBuffer.wrap(bytes));
+            }
+            decodeTime = System.nanoTime() - start;
+        }
+
+        for (int i = 0; i < nCommits; i += 1) {
+            serializedSize += serialized.get(i).length;
+            encodedSize += encoded.get(i).length;
+        }
+
+        System.out.printf("%d commits of %d files, last of %d rounds%n",
+                          nCommits, nFiles, ROUNDS);
+        System.out.printf("%-12s %10s %12s %12s%n",
+                          "format", "bytes", "encode us", "decode us");
+        report("serialized", serializedSize, serializeTime, deserializeTime,
+               nCommits);
+        report("binary", encodedSize, encodeTime, decodeTime, nCommits);
+        System.out.printf("%-12s %10d%n", "  + trees", treeSize / nCommits);
+        System.out.printf("binary with trees is %.1fx smaller, "
+                          + "decodes %.1fx faster%n",
+                          (double) serializedSize / (encodedSize + treeSize),
+                          (double) deserializeTime / decodeTime);
+    }
+
+    /** Print one line of the commit-codec table for format NAME, whose
+     *  N commits took SIZE bytes, ENCODETIME ns to write and DECODETIME ns
+     *  to read. */
+    private static void report(String name, long size, long encodeTime,
+                               long decodeTime, int n) {
+        System.out.printf("%-12s %10d %12.2f %12.2f%n", name, size / n,
+                          encodeTime / 1000.0 / n, decodeTime / 1000.0 / n);
+    }
+
+    /** Time finding merge bases in a synthetic history of NCOMMITS commits
+     *  on NBRANCHES long-lived branches that merge each other now and
+     *  then, against walking the whole history of both commits.  The
+     *  queries pair commits from the recent end of the history, as merges
+     *  usually do, and each answer is checked against the full walk. */
+    static void mergeBase(int nCommits, int nBranches) {
+        CommitGraph graph =
+            new CommitGraph(Utils.join(tempDir(), "commit-graph"));
+        Random random = new Random(nCommits);
+        long start = System.nanoTime();
+        syntheticHistory(graph, random, nCommits, nBranches);
+        long buildTime = System.nanoTime() - start;
+
+        int[][] queries = new int[QUERIES][2];
+        int recent = Math.max(1, Math.min(nCommits / 10, RECENT_COMMITS));
+        for (int[] query : queries) {
+            query[0] = graph.size() - 1 - random.nextInt(recent);
+            query[1] = graph.size() - 1 - random.nextInt(recent);
+        }
+
+        long walkTime = 0, fullTime = 0;
+        int nBases = 0;
+        for (int round = 0; round < ROUNDS; round += 1) {
+            nBases = 0;
+            start = System.nanoTime();
+            for (int[] query : queries) {
+                nBases += graph.mergeBases(query[0], query[1]).size();
+            }
+            walkTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int[] query : queries) {
+                fullWalkMergeBase(graph, query[0], query[1]);
+            }
+            fullTime = System.nanoTime() - start;
+        }
+
+        for (int[] query : queries) {
+            int expected = fullWalkMergeBase(graph, query[0], query[1]);
+            if (!graph.mergeBases(query[0], query[1]).contains(expected)) {
+                throw new IllegalStateException("wrong merge base for "
+                                                + query[0] + " and "
+                                                + query[1]);
+            }
+        }
+
+        System.out.printf("%d commits on %d branches, built in %.1f ms; "
+                          + "%d queries, last of %d rounds%n",
+                          graph.size(), nBranches, buildTime / 1e6,
+                          QUERIES, ROUNDS);
+        System.out.printf("%-12s %12s%n", "method", "query us");
+        System.out.printf("%-12s %12.2f%n", "generation",
+                          walkTime / 1000.0 / QUERIES);
+        System.out.printf("%-12s %12.2f%n", "full walk",
+                          fullTime / 1000.0 / QUERIES);
+        System.out.printf("%.2f merge bases per query, generation walk "
+                          + "%.1fx faster%n",
+                          (double) nBases / QUERIES,
+                          (double) fullTime / walkTime);
+    }
+
+    /** Time scanning a working directory of NFILES small files for
+     *  status, first with an empty stat cache, so that every tracked file
+     *  is hashed, and then with the cache saved by the first scan, as a
+     *  later status would find it.  One file in CHANGE_ODDS differs from
+     *  the tracked version and one in CHANGE_ODDS is untracked. */
+    static void status(int nFiles) {
+        File work = tempDir();
+        File cacheFile = Utils.join(tempDir(), "index");
+        Random random = new Random(nFiles);
+        Map<String, String> tracked = new HashMap<>();
+        for (int i = 0; i < nFiles; i += 1) {
+            String name = String.format("file%07d", i);
+            File file = Utils.join(work, name);
+            Utils.writeContents(file, randomId(random));
+            switch (random.nextInt(CHANGE_ODDS)) {
+            case 0:
+                tracked.put(name, randomId(random));
+                break;
+            case 1:
+                break;
+            default:
+                tracked.put(name, Utils.sha1File(file));
+            }
+        }
+        Map<String, String> staged = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+
+        long start = System.nanoTime();
+        StatCache cache = new StatCache(cacheFile);
+        int[] changes = { 0 };
+        new WorkingTreeScan(work, cache, tracked, staged, removed)
+            .forEach((name, change) -> changes[0] += 1);
+        cache.save();
+        long coldTime = System.nanoTime() - start;
+
+        long warmTime = 0;
+        for (int round = 0; round < ROUNDS; round += 1) {
+            start = System.nanoTime();
+            cache = new StatCache(cacheFile);
+            new WorkingTreeScan(work, cache, tracked, staged, removed)
+                .forEach((name, change) -> { });
+            cache.save();
+            warmTime = System.nanoTime() - start;
+        }
+
+        System.out.printf("%d files, %d changed, %d threads%n", nFiles,
+                          changes[0],
+                          ForkJoinPool.commonPool().getParallelism());
+        System.out.printf("cold cache: %8.1f ms%n", coldTime / 1e6);
+        System.out.printf("warm cache: %8.1f ms (last of %d rounds)%n",
+                          warmTime / 1e6, ROUNDS);
+    }
+
+    /** Add N commits to GRAPH on NBRANCHES branches, choosing where to
+     *  commit and what to merge with RANDOM.  Each commit goes on a random
+     *  branch, and one in MERGE_ODDS merges in the tip of another. */
+    private static void syntheticHistory(CommitGraph graph, Random random,
+                                         int n, int nBranches) {
+        int[] tips = new int[nBranches];
+        long time = 0;
+        tips[0] = graph.add(randomId(random), CommitGraph.NONE,
+                            CommitGraph.NONE, time);
+        for (int k = 1; k < nBranches; k += 1) {
+            tips[k] = tips[0];
+        }
+        for (int i = 1; i < n; i += 1) {
+            int branch = random.nextInt(nBranches);
+            int merged = CommitGraph.NONE;
+            if (random.nextInt(MERGE_ODDS) == 0) {
+                int other = random.nextInt(nBranches);
+                if (tips[other] != tips[branch]) {
+                    merged = tips[other];
+                }
+            }
+            time += 1000;
+            tips[branch] = graph.add(randomId(random), tips[branch],
+                                     merged, time);
+        }
+    }
+
+    /** Return a merge base of the commits at A and B in GRAPH, found by
+     *  marking every ancestor of both.  Positions put parents before
+     *  children, so the common ancestor with the largest position is not
+     *  an ancestor of any other. */
+    private static int fullWalkMergeBase(CommitGraph graph, int a, int b) {
+        BitSet common = ancestors(graph, a);
+        common.and(ancestors(graph, b));
+        return common.previousSetBit(graph.size() - 1);
+    }
+
+    /** Return the positions of the commit at POS in GRAPH and all its
+     *  ancestors. */
+    private static BitSet ancestors(CommitGraph graph, int pos) {
+        BitSet result = new BitSet(graph.size());
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(pos);
+        result.set(pos);
+        while (!pending.isEmpty()) {
+            int next = pending.pop();
+            for (int p : new int[] { graph.parent(next),
+                                     graph.mergedParent(next) }) {
+                if (p != CommitGraph.NONE && !result.get(p)) {
+                    result.set(p);
+                    pending.push(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return a chain of N commits of NFILES files each, each changing a
+     *  few files of its parent, with their trees in TREES.  The commits
+     *  also have their blobs, as commits from before trees did. */
+    @SuppressWarnings("unchecked")
+    private static List<Commit> syntheticCommits(ObjectStore trees, int n,
+                                                 int nFiles) {
+        Random random = new Random(n);
+        List<Commit> result = new ArrayList<>();
+        Commit prev = new Commit();
+        for (int i = 0; i < nFiles; i += 1) {
+            prev.blobs.put("src/file" + i + ".txt", randomId(random));
+        }
+        prev.tree = Tree.write(trees, prev.blobs);
+        for (int k = 0; k < n; k += 1) {
+            Commit commit = new Commit("commit number " + k);
+            commit.parent = randomId(random);
+            commit.blobs.putAll(prev.blobs);
+            HashMap<String, String> changes = new HashMap<>();
+            for (int i = 0; i < 3; i += 1) {
+                changes.put("src/file" + random.nextInt(nFiles) + ".txt",
+                            randomId(random));
+            }
+            commit.blobs.putAll(changes);
+            commit.tree = Tree.update(trees, prev.tree, changes);
+            result.add(commit);
+            prev = commit;
+        }
+        return result;
+    }
+
+    /** Return a new temporary directory, deleted when the benchmark
+     *  exits. */
+    private static File tempDir() {
+        try {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (File f : dir.listFiles()) {
+                    f.delete();
+                }
+                dir.delete();
+            }));
+            return dir;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a random 40-digit hex id drawn from RANDOM. */
+    private static String randomId(Random random) {
+        byte[] id = new byte[ObjectStore.ID_LENGTH];
+        random.nextBytes(id);
+        return Utils.toHex(id);
+    }
+
+    /** Return ARGS[K] as an integer, or DFLT if it is absent. */
+    private static int intArg(String[] args, int k, int dflt) {
+        return k < args.length ? Integer.parseInt(args[k]) : dflt;
+    }
+
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("usage: java gitlet.Benchmark commit-codec "
+                           + "[COMMITS [FILES]]\n"
+                           + "       java gitlet.Benchmark merge-base "
+                           + "[COMMITS [BRANCHES]]\n"
+                           + "       java gitlet.Benchmark status [FILES]");
+        System.exit(1);
+    }
+
+    /** Number of times each timing is repeated; the last, warmed-up round
+     *  is reported. */
+    private static final int ROUNDS = 5;
+    /** Number of merge-base queries timed in each round. */
+    private static final int QUERIES = 200;
+    /** Merge-base queries pair commits from among this many of the most
+     *  recent. */
+    private static final int RECENT_COMMITS = 1000;
+    /** One synthetic commit in this many is a merge. */
+    private static final int MERGE_ODDS = 20;
+    /** One synthetic working file in this many is modified, and one in
+     *  this many untracked. */
+    private static final int CHANGE_ODDS = 100;
+
+}
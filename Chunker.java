@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Splits a stream into variable-sized chunks at content-defined
+ *  boundaries, in the manner of FastCDC.  A gear hash of the bytes seen
+ *  since the last boundary is updated one byte at a time, and a boundary
+ *  falls after any byte where the hash's top bits are all zero.  Since a
+ *  boundary depends only on the bytes just before it, inserting or deleting
+ *  bytes in a file moves the boundaries near the edit but leaves the chunks
+ *  elsewhere unchanged.  Chunks are between MIN_SIZE and MAX_SIZE bytes;
+ *  a stricter test before AVG_SIZE bytes and a looser one after it keep
+ *  most near the average.
+ *  @author
+ */
+class Chunker {
+
+    /** Smallest chunk, except possibly the last. */
+    static final int MIN_SIZE = 16 << 10;
+    /** Typical size of a chunk. */
+    static final int AVG_SIZE = 64 << 10;
+    /** Largest chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** A Chunker delivering the contents of IN. */
+    Chunker(InputStream in) {
+        _in = in;
+        _buffer = new byte[2 * MAX_SIZE];
+    }
+
+    /** Return the next chunk of the input, or null if it is exhausted. */
+    byte[] next() throws IOException {
+        fill();
+        if (_count == 0) {
+            return null;
+        }
+        int n = cut(_buffer, _start, _count);
+        byte[] chunk = Arrays.copyOfRange(_buffer, _start, _start + n);
+        _start += n;
+        _count -= n;
+        return chunk;
+    }
+
+    /** Return the length of the chunk at the start of the LEN bytes of B
+     *  beginning at OFF, where LEN is MAX_SIZE unless these are the last
+     *  bytes of the input. */
+    static int cut(byte[] b, int off, int len) {
+        if (len <= MIN_SIZE) {
+            return len;
+        }
+        int normal = Math.min(len, AVG_SIZE);
+        int end = Math.min(len, MAX_SIZE);
+        long hash = 0;
+        int i;
+        for (i = MIN_SIZE; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[b[off + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[b[off + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /** Read input until MAX_SIZE bytes are buffered or the input ends. */
+    private void fill() throws IOException {
+        if (_eof || _count >= MAX_SIZE) {
+            return;
+        }
+        System.arraycopy(_buffer, _start, _buffer, 0, _count);
+        _start = 0;
+        while (_count < MAX_SIZE) {
+            int n = _in.read(_buffer, _count, _buffer.length - _count);
+            if (n < 0) {
+                _eof = true;
+                break;
+            }
+            _count += n;
+        }
+    }
+
+    /** Boundary mask used before AVG_SIZE bytes: two more bits than
+     *  log2(AVG_SIZE), taken from the top of the hash, whose bits depend on
+     *  the most recent bytes. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Boundary mask used after AVG_SIZE bytes: two fewer bits. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** Random values for each byte, fixed so that every gitlet cuts
+     *  the same contents at the same places. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The input. */
+    private final InputStream _in;
+    /** Buffered input: _count bytes starting at _start. */
+    private final byte[] _buffer;
+    /** Start and length of the buffered input. */
+    private int _start, _count;
+    /** True once the input has been exhausted. */
+    private boolean _eof;
+
+}
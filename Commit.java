@@ -1,8 +1,13 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.HashMap;
@@ -15,13 +20,31 @@ public class Commit implements Serializable {
     // stores SHA-1 of parent commit
     public String parent;
     // list-like of SHA-1s to Blobs. is a copy of the
-    // staging area for addition at the time of commit
+    // staging area for addition at the time of commit.
+    // commits read from the store only have their tree, and this
+    // stays null. the Repository reads the tree in when it's needed
     public HashMap blobs;
+    // SHA-1 of the Tree holding this commit's blobs. null for commits
+    // written by older versions of gitlet, which hold their blobs directly,
+    // and for new commits until they're saved
+    public String tree;
     // timestamp of commit
     Date timeOfCommit;
     // merged in parent
     public String mergedInParent;
 
+    // pinned so that commits written by earlier versions stay readable
+    private static final long serialVersionUID = 3614819892534846732L;
+
+    // first bytes of a commit in the binary encoding written by encode.
+    // the last byte is the format version. commits written with java
+    // serialization instead start with 0xACED
+    static final byte[] MAGIC = { 'G', 'L', 'C', 2 };
+
+    // format version whose commits held their blobs directly rather
+    // than in a tree. these can still be read
+    static final byte FLAT_VERSION = 1;
+
 
 
     // makes the initial commit
@@ -48,4 +71,113 @@ public class Commit implements Serializable {
 
     }
 
+    // returns the binary encoding of this commit:
+    //     MAGIC
+    //     number of parents (byte), then each parent as a 20-byte sha1,
+    //         first parent first and merged in parent second
+    //     time of commit in epoch millis (long)
+    //     message as a length and UTF-8 bytes
+    //     the 20-byte sha1 of its tree
+    // lengths are varints (see Utils.writeVarint). the commit must have
+    // its tree set. the encoding of a commit is always the same, so it's
+    // what the commit's sha1 is computed from
+    public byte[] encode() {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.write(MAGIC);
+
+            int numParents = parent == null ? 0 : mergedInParent == null ? 1 : 2;
+            out.writeByte(numParents);
+            if (numParents > 0) {
+                out.write(Utils.fromHex(parent));
+            }
+            if (numParents > 1) {
+                out.write(Utils.fromHex(mergedInParent));
+            }
+
+            out.writeLong(timeOfCommit.getTime());
+            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+            Utils.writeVarint(out, messageBytes.length);
+            out.write(messageBytes);
+
+            out.write(Utils.fromHex(tree));
+
+            out.close();
+            return bytes.toByteArray();
+
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+
+    }
+
+    // decodes a commit from the remaining bytes of buf, which hold either
+    // the encoding written by encode or a commit from an earlier version
+    // of gitlet. buf may be a view of the object store's files, so nothing
+    // is copied but the parts that become strings. java-serialized and
+    // FLAT_VERSION commits come back with their blobs rather than a tree
+    @SuppressWarnings("unchecked")
+    public static Commit decode(ByteBuffer buf) {
+
+        try {
+
+            // peek at the first bytes to see which format this is
+            byte[] magic = new byte[MAGIC.length];
+            buf.duplicate().get(magic);
+
+            if (magic[0] != MAGIC[0] || magic[1] != MAGIC[1] || magic[2] != MAGIC[2]) {
+
+                return Utils.readObject(Utils.inputStream(buf), Commit.class);
+
+            }
+
+            byte version = magic[3];
+            if (version != MAGIC[3] && version != FLAT_VERSION) {
+                throw new IllegalArgumentException("unknown commit format " + version);
+            }
+            buf.position(buf.position() + MAGIC.length);
+
+            Commit commit = new Commit(null);
+            commit.blobs = null;
+            byte[] sha1 = new byte[ObjectStore.ID_LENGTH];
+
+            int numParents = buf.get();
+            if (numParents > 0) {
+                buf.get(sha1);
+                commit.parent = Utils.toHex(sha1);
+            }
+            if (numParents > 1) {
+                buf.get(sha1);
+                commit.mergedInParent = Utils.toHex(sha1);
+            }
+
+            commit.timeOfCommit = new Date(buf.getLong());
+            byte[] messageBytes = new byte[Utils.readVarint(buf)];
+            buf.get(messageBytes);
+            commit.message = new String(messageBytes, StandardCharsets.UTF_8);
+
+            if (version == FLAT_VERSION) {
+
+                commit.blobs = new HashMap<String, String>();
+                Tree.readEntries(buf, commit.blobs);
+
+            } else {
+
+                buf.get(sha1);
+                commit.tree = Utils.toHex(sha1);
+
+            }
+
+            return commit;
+
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated commit");
+        }
+
+    }
+
 }
@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/** A catalog of every commit in a store, holding what listing a commit
+ *  needs and nothing else, in one append-only file FILE.  After a header
+ *  holding a magic number and version, each record holds a commit's id,
+ *  its number of parents and their ids, its time in epoch millis, and its
+ *  message as a varint length and UTF-8 bytes.  Listing every commit is a
+ *  single sequential read of FILE, with no object decoded.
+ *
+ *  A record is appended with one write.  Only a crash in the middle of
+ *  an append leaves a partial record, but records appended after one are
+ *  out of step and cannot be read.  Since the catalog can always be made
+ *  again from the store it describes, a catalog that is not intact is
+ *  rebuilt before it is listed.
+ *  @author
+ */
+class CommitCatalog {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x474c4343;
+    /** Format version of the file. */
+    static final int VERSION = 1;
+    /** Size of the header, in bytes. */
+    static final int HEADER_SIZE = 8;
+
+    /** A commit as recorded in the catalog. */
+    static class Entry {
+        /** An entry for commit ID with parents PARENTS, made at TIME with
+         *  message MESSAGE. */
+        Entry(String id, String[] parents, long time, String message) {
+            this.id = id;
+            this.parents = parents;
+            this.time = time;
+            this.message = message;
+        }
+
+        /** The commit's id. */
+        final String id;
+        /** Its parents' ids: first parent first, then any merged-in
+         *  parent. */
+        final String[] parents;
+        /** Its time, in epoch millis. */
+        final long time;
+        /** Its message. */
+        final String message;
+    }
+
+    /** The catalog in FILE. */
+    CommitCatalog(File file) {
+        _file = file;
+    }
+
+    /** Return true iff the catalog's file exists. */
+    boolean exists() {
+        return _file.isFile();
+    }
+
+    /** Append a record for COMMIT, whose id is ID. */
+    void add(String id, Commit commit) {
+        ByteBuffer record = ByteBuffer.wrap(encode(id, commit));
+        try (FileChannel out = FileChannel.open(_file.toPath(),
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.APPEND)) {
+            writeFully(out, record);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff the catalog holds nothing but whole records, so
+     *  that scan sees every commit added to it.  Only the records' lengths
+     *  are read. */
+    boolean intact() {
+        ByteBuffer data = map();
+        try {
+            while (data.hasRemaining()) {
+                data.position(data.position() + ObjectStore.ID_LENGTH);
+                int numParents = data.get();
+                data.position(data.position()
+                              + numParents * ObjectStore.ID_LENGTH + 8);
+                int length = Utils.readVarint(data);
+                data.position(data.position() + length);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Call ACTION on each commit in the catalog, in the order they were
+     *  added, stopping at a partial record. */
+    void scan(Consumer<Entry> action) {
+        ByteBuffer data = map();
+        byte[] id = new byte[ObjectStore.ID_LENGTH];
+        while (data.hasRemaining()) {
+            Entry entry;
+            try {
+                data.get(id);
+                String[] parents = new String[data.get()];
+                for (int k = 0; k < parents.length; k += 1) {
+                    byte[] parent = new byte[ObjectStore.ID_LENGTH];
+                    data.get(parent);
+                    parents[k] = Utils.toHex(parent);
+                }
+                long time = data.getLong();
+                byte[] message = new byte[Utils.readVarint(data)];
+                data.get(message);
+                entry = new Entry(Utils.toHex(id), parents, time,
+                                  new String(message, StandardCharsets.UTF_8));
+            } catch (BufferUnderflowException | IllegalArgumentException
+                     | NegativeArraySizeException excp) {
+                return;
+            }
+            action.accept(entry);
+        }
+    }
+
+    /** Return the catalog's file mapped into memory, positioned after
+     *  its header. */
+    private ByteBuffer map() {
+        ByteBuffer data;
+        try (FileChannel in = FileChannel.open(_file.toPath(),
+                                               StandardOpenOption.READ)) {
+            data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC
+            || data.getInt() != VERSION) {
+            throw new IllegalArgumentException("bad commit catalog "
+                                               + _file.getName());
+        }
+        return data;
+    }
+
+    /** Return an entry for every commit in COMMITS, decoding them in
+     *  parallel, in order of commit time, as a catalog rebuilt from them
+     *  would list them. */
+    static List<Entry> entries(ObjectStore commits) {
+        return commits.ids().parallelStream()
+            .map(id -> {
+                Commit commit = Commit.decode(commits.buffer(id));
+                String[] parents = commit.parent == null ? new String[0]
+                    : commit.mergedInParent == null
+                    ? new String[] { commit.parent }
+                    : new String[] { commit.parent, commit.mergedInParent };
+                return new Entry(id, parents, commit.timeOfCommit.getTime(),
+                                 commit.message);
+            })
+            .sorted(Comparator.comparingLong(entry -> entry.time))
+            .collect(Collectors.toList());
+    }
+
+    /** Write a new catalog in FILE of every commit in COMMITS, decoding
+     *  them in parallel, and return how many there are.  Records are in
+     *  order of commit time.  The new file is written under a name of its
+     *  own, so that rebuilds at once do not mix, and replaces any old one
+     *  atomically. */
+    static int rebuild(File file, ObjectStore commits) {
+        List<String> ids = commits.ids();
+        List<Map.Entry<Long, byte[]>> records = ids.parallelStream()
+            .map(id -> {
+                Commit commit = Commit.decode(commits.buffer(id));
+                return Map.entry(commit.timeOfCommit.getTime(),
+                                 encode(id, commit));
+            })
+            .sorted(Map.Entry.comparingByKey())
+            .collect(Collectors.toList());
+        File tmp = new File(file.getPath() + ".tmp-"
+                            + Long.toHexString(new Random().nextLong()));
+        try (FileChannel out =
+             FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            buf.putInt(MAGIC).putInt(VERSION);
+            for (Map.Entry<Long, byte[]> record : records) {
+                byte[] bytes = record.getValue();
+                if (buf.remaining() < bytes.length) {
+                    drain(out, buf);
+                }
+                if (buf.remaining() < bytes.length) {
+                    writeFully(out, ByteBuffer.wrap(bytes));
+                } else {
+                    buf.put(bytes);
+                }
+            }
+            drain(out, buf);
+            out.force(false);
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return records.size();
+    }
+
+    /** Write the contents of BUF, which has just been filled, to OUT, and
+     *  clear it. */
+    private static void drain(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        buf.flip();
+        writeFully(out, buf);
+        buf.clear();
+    }
+
+    /** Write the remaining contents of BUF to OUT. */
+    private static void writeFully(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Return the catalog record for COMMIT, whose id is ID. */
+    private static byte[] encode(String id, Commit commit) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(Utils.fromHex(id));
+            int numParents = commit.parent == null ? 0
+                : commit.mergedInParent == null ? 1 : 2;
+            out.writeByte(numParents);
+            if (numParents > 0) {
+                out.write(Utils.fromHex(commit.parent));
+            }
+            if (numParents > 1) {
+                out.write(Utils.fromHex(commit.mergedInParent));
+            }
+            out.writeLong(commit.timeOfCommit.getTime());
+            byte[] message = commit.message.getBytes(StandardCharsets.UTF_8);
+            Utils.writeVarint(out, message.length);
+            out.write(message);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Size of the buffer used to write a rebuilt catalog. */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** The file holding the catalog. */
+    private final File _file;
+
+}
@@ -0,0 +1,453 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/** The shape of a repository's commit history, kept apart from the commits
+ *  themselves so that walking it never reads a commit object.  Each commit
+ *  is given a position, its index in the file FILE, and its record there
+ *  holds its id, the positions of its parents, its commit time and its
+ *  generation number: 1 for a commit with no parents, and otherwise one
+ *  more than the largest generation of its parents.  A commit's parents
+ *  are always added before it, so parents have smaller positions than
+ *  their children, and an ancestor of a commit never has a larger
+ *  generation.
+ *
+ *  Records are only ever appended, and the file is read through a memory
+ *  mapping.  A SortedIndex next to the file maps ids to positions.  A
+ *  graph made anew, as when commits have been removed, is built in files
+ *  of its own and then moved into place over the old ones by replace,
+ *  with a new tag, so that a graph open elsewhere is never changed under
+ *  it.
+ *
+ *  A graph may also be opened read-only, by commands that must not write
+ *  to the repository.  Its files are then never changed, and commits
+ *  added to it are kept in memory, after those in the file, until it is
+ *  closed.
+ *  @author
+ */
+class CommitGraph {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x474c4347;
+    /** Format version of the file. */
+    static final int VERSION = 1;
+    /** Size of the file's header, in bytes. */
+    static final int HEADER_SIZE = 16;
+    /** Size of each record, in bytes. */
+    static final int RECORD_SIZE = ObjectStore.ID_LENGTH + 20;
+    /** The parent position of a commit without that parent. */
+    static final int NONE = -1;
+    /** Number of times a graph whose files do not match is opened again
+     *  before they are discarded, and the milliseconds between tries.
+     *  While replace moves files into place, they match again soon. */
+    static final int OPEN_TRIES = 20, OPEN_DELAY = 5;
+
+    /** The graph stored in FILE and its index, which are created on the
+     *  first add.  The graph only repeats what the commits say, so files
+     *  that are damaged or do not match each other are discarded and the
+     *  graph starts out empty.  Files that do not match may be in the
+     *  middle of being replaced, so they are tried again a few times
+     *  first. */
+    CommitGraph(File file) {
+        this(file, false);
+    }
+
+    /** The graph stored in FILE, as for the one-argument constructor, but
+     *  read-only if READONLY: files that do not match or are damaged are
+     *  left alone, and the graph starts out empty without them. */
+    CommitGraph(File file, boolean readOnly) {
+        _file = file;
+        _indexBase = new File(file.getPath() + ".pos");
+        _readOnly = readOnly;
+        for (int tries = 1; !open(); tries += 1) {
+            if (tries == OPEN_TRIES) {
+                discard();
+                return;
+            }
+            try {
+                Thread.sleep(OPEN_DELAY);
+            } catch (InterruptedException excp) {
+                discard();
+                return;
+            }
+        }
+    }
+
+    /** Return a new, empty graph in files of its own next to FILE, to be
+     *  built and then moved into place as the graph in FILE by replace. */
+    static CommitGraph beside(File file) {
+        return new CommitGraph(new File(file.getPath() + ".tmp-"
+                                        + Long.toHexString(new Random()
+                                                           .nextLong())));
+    }
+
+    /** Return the number of commits in this graph. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the tag identifying this graph's file, which changes
+     *  whenever the file is made anew and the positions in it with it.
+     *  Indexes of commits by position carry it to detect that. */
+    long tag() {
+        return _tag;
+    }
+
+    /** Return the position of the commit with id ID, or NONE if it is not
+     *  in this graph. */
+    int position(String id) {
+        byte[] pos = _index == null ? null : _index.get(Utils.fromHex(id));
+        if (pos != null) {
+            return ByteBuffer.wrap(pos).getInt();
+        }
+        return _added.getOrDefault(id, NONE);
+    }
+
+    /** Add the commit with id ID, made at TIME (in epoch millis), whose
+     *  parents are at positions PARENT and MERGEDPARENT, either of which
+     *  may be NONE, and return its position.  A commit already in the
+     *  graph keeps its position. */
+    int add(String id, int parent, int mergedParent, long time) {
+        int existing = position(id);
+        if (existing != NONE) {
+            return existing;
+        }
+        int generation = 1;
+        for (int p : new int[] { parent, mergedParent }) {
+            if (p != NONE) {
+                generation = Math.max(generation, generation(p) + 1);
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(Utils.fromHex(id)).putInt(parent).putInt(mergedParent)
+            .putLong(time).putInt(generation).flip();
+        if (_readOnly) {
+            if (_extra.remaining() < RECORD_SIZE) {
+                ByteBuffer extra = ByteBuffer.allocate(2 * _extra.capacity()
+                                                       + RECORD_SIZE);
+                _extra.flip();
+                _extra = extra.put(_extra);
+            }
+            _extra.put(record);
+            _added.put(id, _size);
+            _size += 1;
+            return _size - 1;
+        }
+        try {
+            if (_channel == null) {
+                create();
+            }
+            long at = HEADER_SIZE + (long) _size * RECORD_SIZE;
+            while (record.hasRemaining()) {
+                _channel.write(record, at + record.position());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        int pos = _size;
+        _size += 1;
+        _stored = _size;
+        _index.put(Utils.fromHex(id), ByteBuffer.allocate(4).putInt(pos)
+                   .array());
+        return pos;
+    }
+
+    /** Return the id of the commit at position POS. */
+    String id(int pos) {
+        byte[] id = new byte[ObjectStore.ID_LENGTH];
+        int at = offset(pos);
+        records(pos).get(at, id);
+        return Utils.toHex(id);
+    }
+
+    /** Return the position of the first parent of the commit at POS, or
+     *  NONE if it has none. */
+    int parent(int pos) {
+        int at = offset(pos);
+        return records(pos).getInt(at + ObjectStore.ID_LENGTH);
+    }
+
+    /** Return the position of the merged-in parent of the commit at POS,
+     *  or NONE if it is not a merge. */
+    int mergedParent(int pos) {
+        int at = offset(pos);
+        return records(pos).getInt(at + ObjectStore.ID_LENGTH + 4);
+    }
+
+    /** Return the commit time of the commit at POS, in epoch millis. */
+    long time(int pos) {
+        int at = offset(pos);
+        return records(pos).getLong(at + ObjectStore.ID_LENGTH + 8);
+    }
+
+    /** Return the generation number of the commit at POS. */
+    int generation(int pos) {
+        int at = offset(pos);
+        return records(pos).getInt(at + ObjectStore.ID_LENGTH + 16);
+    }
+
+    /** Return the positions of the merge bases of the commits at A and B:
+     *  the common ancestors of both (counting each commit as its own
+     *  ancestor) that are not ancestors of another common ancestor.  There
+     *  is one unless the histories cross, as when two branches have each
+     *  merged the other.  They are returned in decreasing order of
+     *  generation.
+     *
+     *  Commits are painted with the side or sides they are reachable
+     *  from, walking down from both at once in decreasing order of
+     *  generation.  A commit painted from both sides is a merge base, and
+     *  its ancestors are painted stale; the walk stops as soon as every
+     *  commit waiting in the queue is stale, well before the root when the
+     *  two share recent history.  Since a commit comes off the queue only
+     *  after all its descendants that are in the walk, it has all its
+     *  paint by then, and no merge base can be the ancestor of another. */
+    List<Integer> mergeBases(int a, int b) {
+        int[] paint = new int[_size];
+        PriorityQueue<Long> queue =
+            new PriorityQueue<>(Comparator.reverseOrder());
+        List<Integer> result = new ArrayList<>();
+        int[] active = { 0 };
+
+        paint(a, SIDE_A, paint, queue, active);
+        paint(b, SIDE_B, paint, queue, active);
+        while (active[0] > 0) {
+            int pos = (int) (long) queue.poll();
+            int flags = paint[pos];
+            if ((flags & STALE) == 0) {
+                active[0] -= 1;
+                if ((flags & BOTH_SIDES) == BOTH_SIDES) {
+                    result.add(pos);
+                    flags |= STALE;
+                }
+            }
+            for (int p : new int[] { parent(pos), mergedParent(pos) }) {
+                if (p != NONE) {
+                    paint(p, flags, paint, queue, active);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Add FLAGS to the paint of the commit at POS, queueing it in QUEUE
+     *  by generation if it is new to the walk.  ACTIVE[0] counts the
+     *  queued commits that are not stale, and PAINT holds the paint of
+     *  every commit. */
+    private void paint(int pos, int flags, int[] paint,
+                       PriorityQueue<Long> queue, int[] active) {
+        int old = paint[pos];
+        if ((old | flags) == old) {
+            return;
+        }
+        paint[pos] = old | flags;
+        if (old == 0) {
+            queue.add(((long) generation(pos) << 32) | pos);
+            if ((flags & STALE) == 0) {
+                active[0] += 1;
+            }
+        } else if ((old & STALE) == 0 && (flags & STALE) != 0) {
+            active[0] -= 1;
+        }
+    }
+
+    /** Release the files held open by this graph. */
+    void close() {
+        try {
+            if (_channel != null) {
+                _channel.close();
+                _channel = null;
+            }
+            if (_index != null) {
+                _index.close();
+                _index = null;
+            }
+            _map = null;
+            _extra = ByteBuffer.allocate(0);
+            _added.clear();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Move this graph's files into place as those of the graph in FILE,
+     *  replacing them, and close it.  The index goes first and the file
+     *  holding the tag last, so that a graph in FILE opened meanwhile finds
+     *  files whose tags differ, and is opened again.  This graph must have
+     *  been made by beside, and not be used again. */
+    void replace(File file) {
+        File base = new File(file.getPath() + ".pos");
+        if (_index != null) {
+            _index.fold();
+        }
+        close();
+        try {
+            if (_file.isFile()) {
+                Files.move(new File(_indexBase.getPath() + ".idx").toPath(),
+                           new File(base.getPath() + ".idx").toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+                new File(base.getPath() + ".log").delete();
+                Files.move(_file.toPath(), file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                new CommitGraph(file).clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Close this graph and delete its files, leaving it empty. */
+    void clear() {
+        close();
+        new File(_indexBase.getPath() + ".idx").delete();
+        new File(_indexBase.getPath() + ".log").delete();
+        _file.delete();
+        _size = _stored = 0;
+    }
+
+    /** Leave this graph empty, without the files it was opened on, which
+     *  are deleted unless it is read-only. */
+    private void discard() {
+        if (_readOnly) {
+            close();
+            _size = _stored = 0;
+        } else {
+            clear();
+        }
+    }
+
+    /** Open the file and index of this graph, if the file exists, and
+     *  return true, or return false, leaving nothing open, if they do not
+     *  match.  A damaged file is discarded. */
+    private boolean open() {
+        if (!_file.isFile()) {
+            return true;
+        }
+        try {
+            _channel = _readOnly
+                ? FileChannel.open(_file.toPath(), StandardOpenOption.READ)
+                : FileChannel.open(_file.toPath(), StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            _channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE
+                || header.getInt() != MAGIC
+                || header.getInt() != VERSION) {
+                discard();
+                return true;
+            }
+            _tag = header.getLong();
+            _size = _stored = (int) ((_channel.size() - HEADER_SIZE)
+                                     / RECORD_SIZE);
+            _index = new SortedIndex(_indexBase, ObjectStore.ID_LENGTH, 4,
+                                     _tag);
+            return true;
+        } catch (SortedIndex.MismatchException | NoSuchFileException excp) {
+            close();
+            _size = _stored = 0;
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the buffer holding the record at POS: the mapping of the
+     *  file, or the records added to a read-only graph after it. */
+    private ByteBuffer records(int pos) {
+        return pos < _stored ? _map : _extra;
+    }
+
+    /** Return the offset in records(POS) of the record at POS.  The
+     *  mapping is extended when POS lies past its end, which only happens
+     *  after adds. */
+    private int offset(int pos) {
+        if (pos < 0 || pos >= _size) {
+            throw new IllegalArgumentException("no commit at graph position "
+                                               + pos);
+        }
+        if (pos >= _stored) {
+            return (pos - _stored) * RECORD_SIZE;
+        }
+        if (_map == null || pos >= _mapped) {
+            try {
+                _map = _channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                    HEADER_SIZE + (long) _stored * RECORD_SIZE);
+                _mapped = _stored;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return HEADER_SIZE + pos * RECORD_SIZE;
+    }
+
+    /** Create the file, with a fresh tag, and its index.  Any index left
+     *  from an earlier file has a different tag and is replaced. */
+    private void create() throws IOException {
+        _tag = new Random().nextLong();
+        _channel = FileChannel.open(_file.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(_tag).flip();
+        while (header.hasRemaining()) {
+            _channel.write(header, header.position());
+        }
+        new File(_indexBase.getPath() + ".idx").delete();
+        new File(_indexBase.getPath() + ".log").delete();
+        _index = new SortedIndex(_indexBase, ObjectStore.ID_LENGTH, 4, _tag);
+        _size = _stored = 0;
+    }
+
+    /** Paint of commits reachable from the first and second commits of
+     *  mergeBases, and of ancestors of merge bases found so far. */
+    private static final int SIDE_A = 1, SIDE_B = 2, STALE = 4;
+    /** Paint of commits reachable from both. */
+    private static final int BOTH_SIDES = SIDE_A | SIDE_B;
+
+    /** The file holding the records. */
+    private final File _file;
+    /** Base name of the files of the index from ids to positions. */
+    private final File _indexBase;
+    /** Open channel on _file, or null if it does not exist yet. */
+    private FileChannel _channel;
+    /** The index from ids to positions, or null if there is none yet. */
+    private SortedIndex _index;
+    /** Tag identifying this graph, shared by its index. */
+    private long _tag;
+    /** True iff this graph's files are never changed. */
+    private final boolean _readOnly;
+    /** Number of records. */
+    private int _size;
+    /** Number of records in the file.  The rest were added to a read-only
+     *  graph. */
+    private int _stored;
+    /** The records added to a read-only graph, one after another. */
+    private ByteBuffer _extra = ByteBuffer.allocate(0);
+    /** The positions of the commits added to a read-only graph, by id. */
+    private final Map<String, Integer> _added = new HashMap<>();
+    /** Mapping of the file, or null if not yet mapped. */
+    private MappedByteBuffer _map;
+    /** Number of records covered by _map. */
+    private int _mapped;
+
+}
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** A lazy walk over a commit and its ancestors in a CommitGraph, yielding
+ *  their positions.  Nothing is decoded: the walk reads only the graph,
+ *  and does only as much of that as has been asked for, so a caller that
+ *  wants the first few commits of a long history pays for those alone.
+ *  Callers read the commits they are given, if they need them.
+ *
+ *  The walk may be limited to commits made in a range of times.  Commits
+ *  made after the range are skipped, but their ancestors are still
+ *  walked.  Commits made before it end the walk down that line of
+ *  history: they are neither yielded nor walked through.
+ *  @author
+ */
+class CommitWalk implements Iterator<Integer> {
+
+    /** Orders in which a walk may yield commits. */
+    enum Order {
+        /** Follow first parents only, newest first. */
+        FIRST_PARENT,
+        /** Every ancestor, each before all of its parents. */
+        TOPO,
+        /** Every ancestor, by decreasing commit time. */
+        DATE
+    }
+
+    /** A walk in ORDER over the commit at START in GRAPH and its
+     *  ancestors. */
+    CommitWalk(CommitGraph graph, int start, Order order) {
+        this(graph, start, order, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** A walk in ORDER over the commit at START in GRAPH and its
+     *  ancestors made from SINCE to UNTIL, inclusive, in epoch millis. */
+    CommitWalk(CommitGraph graph, int start, Order order, long since,
+               long until) {
+        _graph = graph;
+        _order = order;
+        _since = since;
+        _until = until;
+        if (order == Order.DATE) {
+            Comparator<Integer> byTime = Comparator.comparingLong(graph::time);
+            _queue = new PriorityQueue<>(byTime.thenComparing(pos -> pos)
+                                         .reversed());
+        } else {
+            _queue = new PriorityQueue<>(Comparator.reverseOrder());
+        }
+        _seen = new BitSet();
+        push(start);
+        _next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return _next != CommitGraph.NONE;
+    }
+
+    @Override
+    public Integer next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int result = _next;
+        _next = advance();
+        return result;
+    }
+
+    /** Return the rest of this walk as a sequential stream. */
+    Stream<Integer> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            this, Spliterator.ORDERED | Spliterator.DISTINCT
+                  | Spliterator.NONNULL), false);
+    }
+
+    /** Return the position of the next commit of the walk, or NONE if
+     *  there are no more.  Positions put parents before children, so
+     *  taking the largest queued position first yields a commit only
+     *  after all its descendants in the walk. */
+    private int advance() {
+        while (!_queue.isEmpty()) {
+            int pos = _queue.poll();
+            long time = _graph.time(pos);
+            if (time < _since) {
+                continue;
+            }
+            push(_graph.parent(pos));
+            if (_order != Order.FIRST_PARENT) {
+                push(_graph.mergedParent(pos));
+            }
+            if (time <= _until) {
+                return pos;
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Queue the commit at POS, unless it is NONE or already queued. */
+    private void push(int pos) {
+        if (pos != CommitGraph.NONE && !_seen.get(pos)) {
+            _seen.set(pos);
+            _queue.add(pos);
+        }
+    }
+
+    /** The graph walked. */
+    private final CommitGraph _graph;
+    /** The order of the walk. */
+    private final Order _order;
+    /** Range of commit times yielded. */
+    private final long _since, _until;
+    /** Commits waiting to be yielded, with the next first. */
+    private final PriorityQueue<Integer> _queue;
+    /** Commits that have been queued. */
+    private final BitSet _seen;
+    /** Position of the next commit to yield, or NONE. */
+    private int _next;
+
+}
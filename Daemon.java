@@ -0,0 +1,322 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/** A long-lived server that runs gitlet commands for the repository in
+ *  the current directory, so that they pay neither for starting a JVM and
+ *  warming it up nor for reading the repository afresh, and the client
+ *  that hands commands to it.  The two talk over the Unix domain socket
+ *  SOCKET in the repository's .gitlet directory, one command to a
+ *  connection.
+ *
+ *  The client sends the number of arguments and then each argument, in
+ *  modified UTF-8.  The server runs the command with its standard output
+ *  and error sent back as frames, each a tag (OUT or ERR), a length and
+ *  that many bytes, and ends with the tag DONE and an exit status.
+ *
+ *  Commands run one at a time, against a Repository kept between them.
+ *  A client that connects while another command runs waits its turn, for
+ *  as long as that takes: running its command itself instead could make
+ *  two writers of the repository at once.  Only a client that cannot
+ *  connect at all, as when the socket was left by a server that is gone,
+ *  runs its command itself.  So that one client cannot hold up the rest,
+ *  the server drops a client whose command has not all arrived within
+ *  TIMEOUT milliseconds of its turn.  Other processes may change the
+ *  repository meanwhile, so before each command the server compares a
+ *  stamp of the files under .gitlet (the size, modification time and file
+ *  key of each, to a depth of two) with the stamp it took after the last,
+ *  and reads the repository again if they differ.
+ *  @author
+ */
+class Daemon {
+
+    /** Name of the socket in the .gitlet directory. */
+    static final String SOCKET = "daemon.sock";
+    /** Frame tags. */
+    static final int DONE = 0, OUT = 1, ERR = 2;
+    /** Milliseconds the server waits for a command to arrive. */
+    static final long TIMEOUT = 5000;
+
+    /** Return true iff the command named COMMAND may be handed to a
+     *  server. */
+    static boolean forwards(String command) {
+        return !LOCAL_COMMANDS.contains(command);
+    }
+
+    /** Hand the command ARGS to the server for the repository in
+     *  GITLETDIR, if one is running, copying its output to this process's
+     *  standard output and error and exiting with its status if that is
+     *  not 0.  Return false if there is no server to connect to.  Once
+     *  connected, this waits for the server however long it is busy, and
+     *  does not run the command here even if the server fails, since it
+     *  may have run already. */
+    static boolean forward(File gitletDir, String... args) {
+        File socket = new File(gitletDir, SOCKET);
+        if (!socket.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            DataInputStream response =
+                new DataInputStream(Channels.newInputStream(channel));
+            OutputStream out = new FileOutputStream(FileDescriptor.out);
+            OutputStream err = new FileOutputStream(FileDescriptor.err);
+            byte[] buf = new byte[Main.OUTPUT_BUFFER_SIZE];
+            for (int tag = response.readInt(); tag != DONE;
+                 tag = response.readInt()) {
+                int n = response.readInt();
+                if (n > buf.length) {
+                    buf = new byte[n];
+                }
+                response.readFully(buf, 0, n);
+                (tag == ERR ? err : out).write(buf, 0, n);
+            }
+            status = response.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("lost connection to daemon: "
+                                               + excp.getMessage());
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+        return true;
+    }
+
+    /** Serve commands for the repository in GITLETDIR until killed.
+     *  Return false at once if a server is already running for it. */
+    static boolean serve(File gitletDir) {
+        File socket = new File(gitletDir, SOCKET);
+        if (socket.exists()) {
+            try {
+                SocketChannel.open(
+                    UnixDomainSocketAddress.of(socket.toPath())).close();
+                return false;
+            } catch (IOException excp) {
+                socket.delete();
+            }
+        }
+        _gitletDir = gitletDir;
+        try (ServerSocketChannel server =
+             ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            socket.deleteOnExit();
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff this process is a server, and the repository it
+     *  holds is as it was after the last command. */
+    static boolean current() {
+        return _stamp != null && _stamp.equals(stamp(_gitletDir));
+    }
+
+    /** Run the command sent by CLIENT, sending back its output.  Throws
+     *  IOException, having run nothing, if the command does not all arrive
+     *  within TIMEOUT. */
+    private static void handle(SocketChannel client) throws IOException {
+        long deadline = System.nanoTime() + TIMEOUT * 1_000_000;
+        int count = readWithin(client, ByteBuffer.allocate(4), deadline)
+            .getInt();
+        if (count < 0 || count > MAX_ARGS) {
+            throw new IOException("bad request");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i += 1) {
+            ByteBuffer length = readWithin(client, ByteBuffer.allocate(2),
+                                           deadline);
+            ByteBuffer arg = ByteBuffer.allocate(2 + length.getChar(0));
+            arg.put(length);
+            args[i] = new DataInputStream(new ByteArrayInputStream(
+                readWithin(client, arg, deadline).array())).readUTF();
+        }
+        DataOutputStream response = new DataOutputStream(
+            Channels.newOutputStream(client));
+        PrintStream oldOut = System.out, oldErr = System.err;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+            new FrameStream(response, OUT), Main.OUTPUT_BUFFER_SIZE), false);
+        PrintStream err = new PrintStream(new FrameStream(response, ERR),
+                                          true);
+        System.setOut(out);
+        System.setErr(err);
+        int status = 0;
+        try {
+            Main.run(args);
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            Main.discardRepo();
+            status = 1;
+        } finally {
+            out.flush();
+            err.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+        }
+        _stamp = stamp(_gitletDir);
+        response.writeInt(DONE);
+        response.writeInt(status);
+        response.flush();
+    }
+
+    /** Fill the remainder of BUF from CHANNEL, giving up with an
+     *  IOException if that is not done by DEADLINE, a System.nanoTime,
+     *  and return it flipped.  CHANNEL is in blocking mode again
+     *  afterwards. */
+    private static ByteBuffer readWithin(SocketChannel channel,
+                                         ByteBuffer buf, long deadline)
+        throws IOException {
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    throw new EOFException("connection closed");
+                }
+                long wait = (deadline - System.nanoTime()) / 1_000_000;
+                if (buf.hasRemaining() && wait <= 0) {
+                    throw new SocketTimeoutException("timed out");
+                }
+                if (buf.hasRemaining()) {
+                    selector.select(wait);
+                    selector.selectedKeys().clear();
+                }
+            }
+        }
+        channel.configureBlocking(true);
+        return buf.flip();
+    }
+
+    /** Return a stamp of the files in DIR and the directories under it,
+     *  other than those that change without changing the repository. */
+    private static List<String> stamp(File dir) {
+        List<String> result = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return result;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (UNSTAMPED.contains(name)
+                || UNSTAMPED_PREFIXES.stream().anyMatch(name::startsWith)) {
+                continue;
+            }
+            File file = new File(dir, name);
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                    file.toPath(), BasicFileAttributes.class);
+                result.add(name + " " + attrs.size() + " "
+                           + attrs.lastModifiedTime() + " " + attrs.fileKey());
+                if (attrs.isDirectory() && dir.equals(_gitletDir)) {
+                    result.add(name + "/");
+                    result.addAll(stamp(file));
+                }
+            } catch (IOException excp) {
+                result.add(name + " ?");
+            }
+        }
+        return result;
+    }
+
+    /** An output stream that sends what is written to it as frames with
+     *  one tag. */
+    private static class FrameStream extends OutputStream {
+        /** A stream that sends frames tagged TAG to OUT. */
+        FrameStream(DataOutputStream out, int tag) {
+            _out = out;
+            _tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.writeInt(_tag);
+                _out.writeInt(len);
+                _out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /** Where frames go. */
+        private final DataOutputStream _out;
+        /** The tag of every frame. */
+        private final int _tag;
+    }
+
+    /** Most arguments a command may be sent with. */
+    private static final int MAX_ARGS = 256;
+    /** Commands that always run in the process that is given them. */
+    private static final Set<String> LOCAL_COMMANDS =
+        Set.of("init", "daemon", "watch");
+    /** Names in .gitlet left out of stamps: the socket itself, the stat
+     *  cache, which is read afresh for every command anyway, and the
+     *  watcher's journal. */
+    private static final Set<String> UNSTAMPED =
+        Set.of(SOCKET, "index", "fsmonitor", "fsmonitor.lock",
+               "fsmonitor.tmp");
+    /** Starts of the names of files in .gitlet left out of stamps: new
+     *  stat caches being written, and the journal's cookies. */
+    private static final Set<String> UNSTAMPED_PREFIXES =
+        Set.of("index.tmp-", WatchJournal.COOKIE_PREFIX);
+
+    /** The .gitlet directory of the repository served, or null if this
+     *  process is not a server. */
+    private static File _gitletDir;
+    /** Stamp of the repository after the last command, or null. */
+    private static List<String> _stamp;
+
+}
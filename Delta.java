@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Line-level deltas between versions of a text file, computed with Diff.
+ *  A delta is a list of hunks, each giving a range of lines of the base to
+ *  drop and the lines of the target that replace them.  Lines are handled
+ *  as ISO-8859-1 strings, which map bytes to characters one for one, so
+ *  applying a delta reproduces the target byte for byte whatever its
+ *  encoding.
+ *  @author
+ */
+class Delta {
+
+    /** Largest product of the numbers of differing lines in base and target
+     *  for which a delta is computed; Diff's table is this many ints. */
+    static final int MAX_CELLS = 1 << 24;
+
+    /** Number of leading bytes examined when deciding whether contents are
+     *  text. */
+    static final int TEXT_PROBE = 8000;
+
+    /** Return a delta converting BASE into TARGET, or null if either is
+     *  not text, they differ too much for Diff to handle, or the delta
+     *  would not be much smaller than TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        if (!isText(base) || !isText(target)) {
+            return null;
+        }
+        List<String> lines1 = lines(base), lines2 = lines(target);
+        int n1 = lines1.size(), n2 = lines2.size();
+        int prefix = 0;
+        while (prefix < n1 && prefix < n2
+               && lines1.get(prefix).equals(lines2.get(prefix))) {
+            prefix += 1;
+        }
+        int suffix = 0;
+        while (suffix < n1 - prefix && suffix < n2 - prefix
+               && lines1.get(n1 - 1 - suffix)
+                  .equals(lines2.get(n2 - 1 - suffix))) {
+            suffix += 1;
+        }
+        List<String> mid1 = lines1.subList(prefix, n1 - suffix);
+        List<String> mid2 = lines2.subList(prefix, n2 - suffix);
+        if ((long) mid1.size() * mid2.size() > MAX_CELLS) {
+            return null;
+        }
+
+        Diff diff = new Diff();
+        diff.setSequences(mid1, mid2);
+        int[] edits = diff.diffs();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(edits.length / 4);
+            for (int k = 0; k < edits.length; k += 4) {
+                out.writeInt(prefix + edits[k]);
+                out.writeInt(edits[k + 1]);
+                out.writeInt(edits[k + 3]);
+                for (int i = 0; i < edits[k + 3]; i += 1) {
+                    byte[] line = diff.get2(edits[k + 2] + i)
+                        .getBytes(StandardCharsets.ISO_8859_1);
+                    out.writeInt(line.length);
+                    out.write(line);
+                }
+            }
+            out.close();
+            byte[] result = bytes.toByteArray();
+            return result.length < target.length / 2 ? result : null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the result of applying DELTA, as produced by encode, to
+     *  BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        List<String> lines = lines(base);
+        ByteArrayOutputStream result =
+            new ByteArrayOutputStream(base.length + delta.length);
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(delta));
+            int next = 0;
+            for (int hunks = in.readInt(); hunks > 0; hunks -= 1) {
+                int start = in.readInt(), removed = in.readInt();
+                int added = in.readInt();
+                for (; next < start; next += 1) {
+                    result.write(lines.get(next)
+                                 .getBytes(StandardCharsets.ISO_8859_1));
+                }
+                next += removed;
+                for (; added > 0; added -= 1) {
+                    byte[] line = new byte[in.readInt()];
+                    in.readFully(line);
+                    result.write(line);
+                }
+            }
+            for (; next < lines.size(); next += 1) {
+                result.write(lines.get(next)
+                             .getBytes(StandardCharsets.ISO_8859_1));
+            }
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result.toByteArray();
+    }
+
+    /** Return true iff CONTENTS look like text: there is no NUL among
+     *  their first TEXT_PROBE bytes. */
+    static boolean isText(byte[] contents) {
+        for (int i = 0; i < contents.length && i < TEXT_PROBE; i += 1) {
+            if (contents[i] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return CONTENTS split into lines, each including its terminating
+     *  newline (the last may have none). */
+    private static List<String> lines(byte[] contents) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (contents[i] == '\n') {
+                result.add(new String(contents, start, i + 1 - start,
+                                      StandardCharsets.ISO_8859_1));
+                start = i + 1;
+            }
+        }
+        if (start < contents.length) {
+            result.add(new String(contents, start, contents.length - start,
+                                  StandardCharsets.ISO_8859_1));
+        }
+        return result;
+    }
+
+}
@@ -1,7 +1,16 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author
@@ -15,10 +24,53 @@ public class Main {
 
     public static Repository ourRepo;
 
+    // size of the buffer all output goes through
+    static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    // commands that may change HEAD, the current branch or the staging
+    // areas. the rest (log, global-log, find, status, gc, watch, daemon and
+    // rebuild-catalog) only read them, so nothing is saved after them.
+    // log, global-log, find and status read the repository read-only (see
+    // Repository.setReadOnly), leaving the commit graph, message index
+    // and catalog as they are even when those are out of date
+    static final Set<String> WRITE_COMMANDS = Set.of("add", "commit", "branch", "rm-branch",
+                                                     "checkout", "rm", "reset", "merge");
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) {
 
+        // if a daemon is serving this repository, let it run the command
+        if (args.length > 0 && Daemon.forwards(args[0])
+            && Daemon.forward(hiddenGitletFolder, args)) {
+
+            return;
+
+        }
+
+        // everything a command prints goes into one buffer, which is
+        // written out when the command is done (or fails), rather than
+        // flushing stdout line by line
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+            new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE), false);
+        System.setOut(out);
+
+        try {
+
+            run(args);
+
+        } finally {
+
+            out.flush();
+
+        }
+
+    }
+
+    // runs the command given by args. a daemon calls this for each
+    // command it's sent
+    static void run(String... args) {
+
         if (args.length == 0) {
 
             System.out.println("Please enter a command.");
@@ -35,40 +87,72 @@ public class Main {
                 String fileToBeAdded = args[1];
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo();
 
                 // now run the addition method
                 ourRepo.stageFileForAddition(fileToBeAdded);
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
-
             } else if (args[0].equals("commit")) {
 
                 String commitMessage = args[1];
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo();
 
                 // now run the commit method
                 ourRepo.makeCommit(commitMessage);
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
-
             } else if (args[0].equals("log")) {
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo(true);
+
+                // run the log method with any options given:
+                //     -n N             print at most N commits
+                //     --since DATE     leave out commits made before DATE
+                //     --until DATE     leave out commits made after DATE
+                //     --topo-order     show merged-in history too, each
+                //                      commit before its parents
+                //     --date-order     show merged-in history too, newest
+                //                      first
+                //     --json           print each commit as a line of JSON
+                // dates are yyyy-mm-dd or yyyy-mm-ddThh:mm:ss, local time
+                int limit = Integer.MAX_VALUE;
+                long since = Long.MIN_VALUE;
+                long until = Long.MAX_VALUE;
+                CommitWalk.Order order = CommitWalk.Order.FIRST_PARENT;
+                boolean asJson = false;
+
+                try {
+
+                    for (int i = 1; i < args.length; i += 1) {
+
+                        if (args[i].equals("-n") && i + 1 < args.length) {
+                            limit = Integer.parseInt(args[++i]);
+                        } else if (args[i].equals("--since") && i + 1 < args.length) {
+                            since = parseDate(args[++i]);
+                        } else if (args[i].equals("--until") && i + 1 < args.length) {
+                            until = parseDate(args[++i]);
+                        } else if (args[i].equals("--topo-order")) {
+                            order = CommitWalk.Order.TOPO;
+                        } else if (args[i].equals("--date-order")) {
+                            order = CommitWalk.Order.DATE;
+                        } else if (args[i].equals("--json")) {
+                            asJson = true;
+                        } else {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+
+                    }
+
+                } catch (IllegalArgumentException | DateTimeParseException e) {
 
-                // run the log method
-                ourRepo.printLog();
+                    System.out.println("Incorrect operands.");
+                    return;
+
+                }
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
+                ourRepo.printLog(limit, since, until, order, asJson);
 
             } else if (args[0].equals("branch")) {
 
@@ -76,74 +160,55 @@ public class Main {
                 String newBranchName = args[1];
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo();
 
                 // run the make branch method
                 ourRepo.makeBranch(newBranchName, ourRepo.HEAD);
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
-
             } else if (args[0].equals("rm-branch")) {
 
                 // save the branch to delete's name
                 String branchToDeleteName = args[1];
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo();
 
                 // run the delete branch method
                 ourRepo.deleteBranch(branchToDeleteName);
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
-
             } else if (args[0].equals("checkout")) {
 
                 if (args[1].equals("--")) {
 
                     // first read in our Repo class
-                    ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                    ourRepo = readRepo();
 
                     // run the appropriate method
 
                     String fileNameToCheckout = args[2];
                     ourRepo.checkoutFileFromHEAD(fileNameToCheckout);
 
-                    // rewrite the Repo file
-                    byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                    Utils.writeContents(RepositoryFile, ourRepoBytes);
-
                 } else if (args.length == 4 && args[2].equals("--")) {
 
                     String fileNameToCheckout = args[3];
                     String commitToCheckout = args[1];
 
                     // first read in our Repo class
-                    ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                    ourRepo = readRepo();
 
                     // run that mawf method
 
                     ourRepo.checkoutFileFromSomeCommit(fileNameToCheckout, commitToCheckout);
 
-                    // rewrite the Repo file
-                    byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                    Utils.writeContents(RepositoryFile, ourRepoBytes);
-
                 } else if (args.length == 2) {
 
                     String branchName = args[1];
 
                     // first read in our Repo class
-                    ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                    ourRepo = readRepo();
 
                     ourRepo.checkoutBranch(branchName);
 
-                    byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                    Utils.writeContents(RepositoryFile, ourRepoBytes);
-
                 } else {
 
                     System.out.println("Incorrect operands.");
@@ -153,77 +218,101 @@ public class Main {
             } else if (args[0].equals("rm")) {
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo();
 
                 // run method
                 String fileToRemoveName = args[1];
                 ourRepo.removeFile(fileToRemoveName);
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
-
             } else if (args[0].equals("global-log")) {
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo(true);
 
-                // run method
-                ourRepo.globalLog();
-
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
+                // run method. global-log --json prints each commit as a
+                // line of JSON
+                ourRepo.globalLog(args.length > 1 && args[1].equals("--json"));
 
             } else if (args[0].equals("find")) {
 
-                String commitMessage = args[1];
-
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo(true);
 
-                // run method
-                ourRepo.find(commitMessage);
+                // run method. find --contains TEXT and find --regex REGEX
+                // search within messages instead of matching them whole
+                if (args.length == 3 && args[1].equals("--contains")) {
+
+                    ourRepo.findMatching(args[2], false);
+
+                } else if (args.length == 3 && args[1].equals("--regex")) {
+
+                    ourRepo.findMatching(args[2], true);
+
+                } else {
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
+                    ourRepo.find(args[1]);
+
+                }
 
             } else if (args[0].equals("reset")) {
 
                 String commitSHA1ToCheckout = args[1];
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo();
 
                 ourRepo.reset(commitSHA1ToCheckout);
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
-
             } else if (args[0].equals("status")) {
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
-
-                ourRepo.status();
+                ourRepo = readRepo(true);
 
-                // rewrite the Repo file
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
+                // status --json prints each entry as a line of JSON
+                ourRepo.status(args.length > 1 && args[1].equals("--json"));
 
             } else if (args[0].equals("merge")) {
 
                 // first read in our Repo class
-                ourRepo = Utils.readObject(RepositoryFile, Repository.class);
+                ourRepo = readRepo();
 
                 String branchToMerge = args[1];
 
                 ourRepo.merge(branchToMerge);
 
-                byte[] ourRepoBytes = Utils.serialize(ourRepo);
-                Utils.writeContents(RepositoryFile, ourRepoBytes);
+            } else if (args[0].equals("gc")) {
+
+                // first read in our Repo class
+                ourRepo = readRepo();
+
+                // gc only touches the object stores
+                ourRepo.gc();
+
+            } else if (args[0].equals("watch")) {
+
+                // first read in our Repo class
+                ourRepo = readRepo();
+
+                // runs until it's killed, keeping a journal in its own file
+                ourRepo.watch();
+
+            } else if (args[0].equals("daemon")) {
+
+                // serves commands over a socket in .gitlet until it's
+                // killed, reading the Repo class only when it has to
+                if (!Daemon.serve(hiddenGitletFolder)) {
+
+                    System.out.println("A daemon is already running.");
+
+                }
+
+            } else if (args[0].equals("rebuild-catalog")) {
+
+                // first read in our Repo class
+                ourRepo = readRepo();
+
+                // the catalog is its own file
+                ourRepo.rebuildCatalog();
 
             } else {
 
@@ -238,6 +327,96 @@ public class Main {
 
         }
 
+        // save the repository's state, but only after a command that can
+        // change it, and only the parts that did change
+        if (ourRepo != null && WRITE_COMMANDS.contains(args[0])) {
+
+            writeRepo();
+
+        }
+
+        // keep what this command learned about the working files, even
+        // after a read-only command. the stat cache is only a cache of
+        // working file ids, never read as the repository's state, and a
+        // new one replaces the old one with an atomic rename
+        if (ourRepo != null) {
+
+            ourRepo.saveStatCache();
+
+        }
+
+        // report how the object caches did, if asked to
+        if (ourRepo != null && Boolean.getBoolean("gitlet.cacheStats")) {
+
+            System.err.println(ourRepo.cacheStats());
+
+        }
+
+    }
+
+    // saves whichever of HEAD, the current branch and the staging areas
+    // have changed since they were read. each has its own small file, and
+    // the Repo file itself is never rewritten
+    static void writeRepo() {
+
+        ourRepo.saveState();
+
+    }
+
+    // reads in our Repo class for a command that may write to it
+    static Repository readRepo() {
+
+        return readRepo(false);
+
+    }
+
+    // reads in our Repo class, for a command that only reads it if
+    // readOnly. a daemon keeps the one from its last command instead,
+    // unless something else has changed the repository
+    static Repository readRepo(boolean readOnly) {
+
+        Repository repo;
+
+        if (ourRepo != null && Daemon.current()) {
+
+            repo = ourRepo;
+
+        } else {
+
+            discardRepo();
+            repo = Utils.readObject(RepositoryFile, Repository.class);
+            repo.loadState();
+
+        }
+
+        repo.setReadOnly(readOnly);
+        return repo;
+
+    }
+
+    // forgets our Repo class, releasing the files it holds open, so that
+    // the next command reads it in again
+    static void discardRepo() {
+
+        if (ourRepo != null) {
+
+            ourRepo.close();
+            ourRepo = null;
+
+        }
+
+    }
+
+    // returns the time in epoch millis of a date given as yyyy-mm-dd (the
+    // start of that day) or yyyy-mm-ddThh:mm:ss, in the local time zone
+    static long parseDate(String date) {
+
+        LocalDateTime time = date.contains("T")
+            ? LocalDateTime.parse(date)
+            : LocalDate.parse(date).atStartOfDay();
+
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
     }
 
     // initializes and saves the repository class
@@ -269,6 +448,9 @@ public class Main {
         byte[] gitletBytes = Utils.serialize(gitlet);
         Utils.writeContents(RepositoryFile, gitletBytes);
 
+        // HEAD, the current branch and the staging areas get their own files
+        gitlet.saveState();
+
     }
 
 }
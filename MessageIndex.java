@@ -0,0 +1,338 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/** An index of commit messages, by the commits' positions in a
+ *  CommitGraph.  It has two parts, each a SortedIndex whose keys carry a
+ *  commit position after a fixed-width prefix and whose values are empty,
+ *  so that the commits under one prefix are found by a range search.  In
+ *  the exact part, the prefix is the first 8 bytes of the SHA-1 of a
+ *  message; in the trigrams part, it is one of the trigrams (runs of three
+ *  chars) of a message.
+ *
+ *  Both parts only say which commits might match: a message hash may
+ *  collide, and a commit with every trigram of a string need not contain
+ *  the string.  Callers check the candidates against the messages
+ *  themselves.
+ *
+ *  An index is for the commit graph with one tag, and lives in the
+ *  subdirectory of DIR named by that tag in hex, so that an index is
+ *  never opened against a graph whose positions it does not hold.  It is
+ *  built whole, under another name, and renamed into place once
+ *  complete, so that an index found for a tag holds every commit that
+ *  was in the graph when it was built; those added since are added to it
+ *  as they are made.  Building an index removes those of other tags.
+ *  @author
+ */
+class MessageIndex {
+
+    /** Length of the message-hash prefix of exact keys. */
+    static final int HASH_LENGTH = 8;
+    /** Length of a trigram prefix: three 16-bit chars. */
+    static final int TRIGRAM_LENGTH = 6;
+    /** Length of a trigram. */
+    static final int GRAM = 3;
+    /** Fold threshold of the trigram index's log.  A message adds a record
+     *  for each of its distinct trigrams, so this is kept well above the
+     *  default. */
+    static final int TRIGRAM_MAX_LOG = 1 << 16;
+
+    /** The index in directory DIR, built by build, with tag TAG. */
+    private MessageIndex(File dir, long tag) {
+        _exact = new SortedIndex(new File(dir, "exact"),
+                                 HASH_LENGTH + 4, 0, tag);
+        try {
+            _trigrams = new SortedIndex(new File(dir, "trigrams"),
+                                        TRIGRAM_LENGTH + 4, 0, tag,
+                                        TRIGRAM_MAX_LOG);
+        } catch (SortedIndex.MismatchException excp) {
+            _exact.close();
+            throw excp;
+        }
+    }
+
+    /** Return the index in DIR for positions in the commit graph with tag
+     *  TAG, or null if none has been built. */
+    static MessageIndex open(File dir, long tag) {
+        File tagDir = new File(dir, Long.toHexString(tag));
+        if (!tagDir.isDirectory()) {
+            return null;
+        }
+        try {
+            return new MessageIndex(tagDir, tag);
+        } catch (SortedIndex.MismatchException excp) {
+            return null;
+        }
+    }
+
+    /** Build an index in DIR for positions in the commit graph with tag
+     *  TAG, in which MESSAGES.get(P) is the message of the commit at P,
+     *  unless one is built already, and remove the indexes of other tags
+     *  there. */
+    static void build(File dir, long tag, List<String> messages) {
+        List<byte[]> exactKeys = new ArrayList<>();
+        List<byte[]> trigramKeys = new ArrayList<>();
+        for (int pos = 0; pos < messages.size(); pos += 1) {
+            exactKeys.add(exactKey(messages.get(pos), pos));
+            for (long trigram : trigrams(messages.get(pos))) {
+                trigramKeys.add(trigramKey(trigram, pos));
+            }
+        }
+        exactKeys.sort(Arrays::compareUnsigned);
+        trigramKeys.sort(Arrays::compareUnsigned);
+        String name = Long.toHexString(tag);
+        File tmp = new File(dir, name + TMP_SUFFIX
+                            + Long.toHexString(new Random().nextLong()));
+        tmp.mkdirs();
+        SortedIndex.create(new File(tmp, "exact"), HASH_LENGTH + 4, 0, tag,
+                           exactKeys,
+                           Collections.nCopies(exactKeys.size(), EMPTY));
+        SortedIndex.create(new File(tmp, "trigrams"), TRIGRAM_LENGTH + 4, 0,
+                           tag, trigramKeys,
+                           Collections.nCopies(trigramKeys.size(), EMPTY));
+        try {
+            Files.move(tmp.toPath(), new File(dir, name).toPath(),
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            deleteTree(tmp);
+        }
+        for (File other : dir.listFiles()) {
+            if (!other.getName().equals(name)
+                && !other.getName().contains(TMP_SUFFIX)) {
+                deleteTree(other);
+            }
+        }
+    }
+
+    /** Delete FILE, and everything in it if it is a directory. */
+    private static void deleteTree(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteTree(f);
+            }
+        }
+        file.delete();
+    }
+
+    /** Record that the commit at position POS has message MESSAGE. */
+    void add(int pos, String message) {
+        _exact.put(exactKey(message, pos), EMPTY);
+        for (long trigram : trigrams(message)) {
+            _trigrams.put(trigramKey(trigram, pos), EMPTY);
+        }
+    }
+
+    /** Return the positions of the commits that may have message
+     *  MESSAGE. */
+    BitSet exact(String message) {
+        BitSet result = new BitSet();
+        List<byte[]> keys = _exact.range(exactKey(message, 0),
+                                         exactKey(message, -1),
+                                         Integer.MAX_VALUE);
+        for (byte[] key : keys) {
+            result.set(ByteBuffer.wrap(key).getInt(HASH_LENGTH));
+        }
+        return result;
+    }
+
+    /** Return the positions of the commits whose messages may contain all
+     *  of LITERALS, or null if that could be any commit, as when none of
+     *  LITERALS is as long as a trigram. */
+    BitSet containing(List<String> literals) {
+        BitSet result = null;
+        for (String literal : literals) {
+            for (long trigram : trigrams(literal)) {
+                BitSet commits = new BitSet();
+                List<byte[]> keys = _trigrams.range(trigramKey(trigram, 0),
+                                                    trigramKey(trigram, -1),
+                                                    Integer.MAX_VALUE);
+                for (byte[] key : keys) {
+                    commits.set(ByteBuffer.wrap(key).getInt(TRIGRAM_LENGTH));
+                }
+                if (result == null) {
+                    result = commits;
+                } else {
+                    result.and(commits);
+                }
+                if (result.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return strings that every match of the regular expression REGEX
+     *  must contain, found by a conservative reading of REGEX: the runs of
+     *  plain characters outside of any group, class, repeat count or
+     *  escape, less any last character made optional by a quantifier.  A
+     *  REGEX with alternatives, embedded flags or an escape whose length
+     *  is not known yields none. */
+    static List<String> literals(String regex) {
+        List<String> result = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(?")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (depth == 0 && META.indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            }
+            if (QUANTIFIERS.indexOf(c) >= 0 && run.length() > 0) {
+                run.setLength(run.length() - 1);
+            }
+            result.add(run.toString());
+            run.setLength(0);
+            if (c == '\\') {
+                i = endOfEscape(regex, i);
+                if (i < 0) {
+                    return new ArrayList<>();
+                }
+            } else if (c == '[') {
+                i = endOfClass(regex, i);
+            } else if (c == '(' || c == '{') {
+                depth += 1;
+            } else if ((c == ')' || c == '}') && depth > 0) {
+                depth -= 1;
+            }
+        }
+        result.add(run.toString());
+        result.removeIf(literal -> literal.length() < GRAM);
+        return result;
+    }
+
+    /** Return the index in REGEX of the ']' closing the character class
+     *  opened at START, or the length of REGEX if there is none.  Nothing
+     *  in a class but a nested class or an escape is special, and a ']'
+     *  first in a class, after any '^', is one of its members. */
+    private static int endOfClass(String regex, int start) {
+        int depth = 0;
+        for (int i = start; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = endOfEscape(regex, i);
+                if (i < 0) {
+                    return regex.length();
+                }
+            } else if (c == '[') {
+                depth += 1;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i += 1;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i += 1;
+                }
+            } else if (c == ']') {
+                depth -= 1;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return regex.length();
+    }
+
+    /** Return the index in REGEX of the last character of the escape
+     *  starting with the backslash at START, including any argument it takes:
+     *  hex, octal or control characters, a property or character name, a
+     *  back reference, or text quoted up to the end of a quote.  Return -1 if the escape
+     *  is a letter whose arguments are not known here. */
+    private static int endOfEscape(String regex, int start) {
+        int n = regex.length(), i = start + 1;
+        if (i >= n) {
+            return -1;
+        }
+        char c = regex.charAt(i);
+        int end;
+        if (c == 'x' && i + 1 < n && regex.charAt(i + 1) == '{'
+            || c == 'p' || c == 'P' || c == 'N') {
+            end = i + 1 < n && regex.charAt(i + 1) == '{'
+                ? regex.indexOf('}', i) : i + 1;
+        } else if (c == 'x') {
+            end = i + 2;
+        } else if (c == 'u') {
+            end = i + 4;
+        } else if (c == 'c') {
+            end = i + 1;
+        } else if (c == 'k') {
+            end = regex.indexOf('>', i);
+        } else if (c == '0' || c >= '1' && c <= '9') {
+            end = i;
+            int max = c == '0' ? i + 3 : n - 1;
+            while (end < max && end + 1 < n
+                   && Character.isDigit(regex.charAt(end + 1))
+                   && (c != '0' || regex.charAt(end + 1) <= '7')) {
+                end += 1;
+            }
+        } else if (c == 'Q') {
+            int quoteEnd = regex.indexOf("\\E", i);
+            end = quoteEnd < 0 ? n - 1 : quoteEnd + 1;
+        } else if (Character.isLetter(c) && PLAIN_ESCAPES.indexOf(c) < 0) {
+            return -1;
+        } else {
+            end = i;
+        }
+        return end < 0 ? -1 : Math.min(end, n - 1);
+    }
+
+    /** Release the files held open by this index. */
+    void close() {
+        _exact.close();
+        _trigrams.close();
+    }
+
+    /** Return the distinct trigrams of TEXT, each packed into a long. */
+    private static long[] trigrams(String text) {
+        return IntStream.rangeClosed(0, text.length() - GRAM)
+            .mapToLong(i -> ((long) text.charAt(i) << 32)
+                       | ((long) text.charAt(i + 1) << 16)
+                       | text.charAt(i + 2))
+            .distinct().toArray();
+    }
+
+    /** Return the exact-index key for MESSAGE at position POS. */
+    private static byte[] exactKey(String message, int pos) {
+        byte[] hash = Utils.fromHex(Utils.sha1(message.getBytes(
+                                                StandardCharsets.UTF_8)));
+        return ByteBuffer.allocate(HASH_LENGTH + 4)
+            .put(hash, 0, HASH_LENGTH).putInt(pos).array();
+    }
+
+    /** Return the trigram-index key for TRIGRAM at position POS. */
+    private static byte[] trigramKey(long trigram, int pos) {
+        return ByteBuffer.allocate(TRIGRAM_LENGTH + 4)
+            .putShort((short) (trigram >>> 32))
+            .putInt((int) trigram).putInt(pos).array();
+    }
+
+    /** Characters that end a run of plain characters in a regex. */
+    private static final String META = "\\.[](){}*+?^$|";
+    /** Letters that make an escape with no argument. */
+    private static final String PLAIN_ESCAPES = "tnrfaedDsSwWbBAGZzRXhHvV";
+    /** Characters that make the one before them optional or repeated. */
+    private static final String QUANTIFIERS = "*?{";
+    /** The value of every record. */
+    private static final byte[] EMPTY = new byte[0];
+    /** Part of the name of an index being built. */
+    private static final String TMP_SUFFIX = ".tmp-";
+
+    /** The index of message hashes and of trigrams. */
+    private final SortedIndex _exact, _trigrams;
+
+}
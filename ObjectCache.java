@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A cache of objects decoded from a store, keyed by id.  Each entry is
+ *  charged an approximate size in bytes, and once the total exceeds the
+ *  cache's capacity the least recently used entries are evicted.  Since an
+ *  id is the SHA-1 of its object's contents, a cached object never goes
+ *  stale.  Lookups are counted as hits or misses.  All methods may be
+ *  called from several threads at once.
+ *  @author
+ */
+class ObjectCache<V> {
+
+    /** An empty cache holding at most CAPACITY bytes of entries. */
+    ObjectCache(long capacity) {
+        _capacity = capacity;
+        _entries = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    /** Return the object with id ID, or null if it is not cached. */
+    synchronized V get(String id) {
+        Entry<V> entry = _entries.get(id);
+        if (entry == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return entry._value;
+    }
+
+    /** Cache VALUE as the object with id ID, charging SIZE bytes for it,
+     *  and evict least recently used entries until the total fits.  An
+     *  entry larger than the whole capacity is not cached. */
+    synchronized void put(String id, V value, long size) {
+        if (size > _capacity) {
+            return;
+        }
+        Entry<V> old = _entries.put(id, new Entry<>(value, size));
+        if (old != null) {
+            _size -= old._size;
+        }
+        _size += size;
+        Iterator<Entry<V>> eldest = _entries.values().iterator();
+        while (_size > _capacity) {
+            _size -= eldest.next()._size;
+            eldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** Return the number of lookups that found their object. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of entries evicted to make room. */
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the total size charged for the cached entries. */
+    synchronized long size() {
+        return _size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %d evictions, %d/%d bytes",
+                             _hits, _misses, _evictions, _size, _capacity);
+    }
+
+    /** A cached object and the size charged for it. */
+    private static class Entry<V> {
+        /** An entry for VALUE of size SIZE. */
+        Entry(V value, long size) {
+            _value = value;
+            _size = size;
+        }
+
+        /** The object. */
+        private final V _value;
+        /** Its size. */
+        private final long _size;
+    }
+
+    /** Largest total size of the entries. */
+    private final long _capacity;
+    /** The entries, least recently used first. */
+    private final LinkedHashMap<String, Entry<V>> _entries;
+    /** Total size of the entries. */
+    private long _size;
+    /** Counts of lookups that hit and missed, and of evictions. */
+    private long _hits, _misses, _evictions;
+
+}
@@ -0,0 +1,1102 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A content-addressed store of gitlet objects (commits or blobs) kept in
+ *  a single directory.  New objects are appended to one pack file in that
+ *  directory, DIR/pack, and located through a SortedIndex (DIR/pack.idx
+ *  and DIR/pack.log) mapping each object's SHA-1 to its offset and length
+ *  in the pack.  Reading an object is a binary search of the index
+ *  followed by one positioned read of the pack.
+ *
+ *  Objects kept one file per object ("loose" objects, as written by older
+ *  versions of gitlet) are sharded like git's: the object with id ID is
+ *  DIR/XX/YYY..., where XX is the first two digits of ID and YYY... the
+ *  rest, so finding one touches only a small directory.  Loose objects
+ *  left directly in DIR by older versions are moved into that layout the
+ *  first time the store is opened.
+ *
+ *  Objects are compressed with zlib unless compression would not help;
+ *  each index entry carries flags saying how its object is stored.  An
+ *  object's id is always the SHA-1 of its uncompressed contents.  A new
+ *  version of a text file may instead be stored as a Delta against an
+ *  earlier version, which is reconstructed in memory when it is read.
+ *  Large files are split by a Chunker into content-defined chunks, each
+ *  stored once as an object of its own, and stored as the list of their
+ *  ids, so a small change to a large file adds only a few new chunks.
+ *
+ *  The pack starts with a header holding a magic number, a version and a
+ *  random tag that is repeated in the headers of its index files.
+ *  @author
+ */
+class ObjectStore {
+
+    /** Magic number at the start of a pack file. */
+    static final int PACK_MAGIC = 0x474c504b;
+    /** Format version of pack files. */
+    static final int PACK_VERSION = 1;
+    /** Size of a pack header in bytes. */
+    static final int PACK_HEADER_SIZE = 16;
+    /** Length of a binary SHA-1. */
+    static final int ID_LENGTH = 20;
+    /** Length of an index value: offset (8), length (4), flags (4). */
+    static final int ENTRY_LENGTH = 16;
+
+    /** A store whose objects live in directory DIR. */
+    ObjectStore(File dir) {
+        _dir = dir;
+        _packFile = Utils.join(dir, "pack");
+        File marker = Utils.join(dir, FANOUT_MARKER);
+        if (dir.isDirectory() && !marker.exists()) {
+            shardLooseObjects();
+            Utils.writeContents(marker, "");
+        }
+    }
+
+    /** Return true iff an object with id ID is in this store. */
+    boolean contains(String id) {
+        return entry(id) != null
+            || (id.length() == Utils.UID_LENGTH && loose(id).isFile());
+    }
+
+    /** Return the contents of the object with id ID, which the caller
+     *  must not modify.  Objects of at most MAX_CACHED bytes are kept in a
+     *  cache, so rereading them (as when several deltas share a base) costs
+     *  nothing.  Throws IllegalArgumentException if there is no such
+     *  object. */
+    byte[] read(String id) {
+        byte[] contents = _cache.get(id);
+        if (contents != null) {
+            return contents;
+        }
+        try (InputStream in = open(id)) {
+            contents = in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (contents.length <= MAX_CACHED) {
+            _cache.put(id, contents, contents.length);
+        }
+        return contents;
+    }
+
+    /** Return the cache of object contents used by read. */
+    ObjectCache<byte[]> cache() {
+        return _cache;
+    }
+
+    /** Return the contents of the object with id ID as a read-only buffer
+     *  positioned at its start.  Objects stored whole and uncompressed in at
+     *  least MAP_THRESHOLD bytes, packed or loose, are mapped into memory
+     *  rather than copied onto the heap; others are read in.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    ByteBuffer buffer(String id) {
+        ByteBuffer entry = entry(id);
+        if (entry != null && entry.getInt(FLAGS) == 0) {
+            return region(entry.getLong(OFFSET), entry.getInt(LENGTH));
+        }
+        File loose = entry == null && id.length() == Utils.UID_LENGTH
+            ? loose(id) : null;
+        if (loose != null && loose.length() >= MAP_THRESHOLD) {
+            try (FileChannel in = FileChannel.open(loose.toPath(),
+                                                   StandardOpenOption.READ)) {
+                return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return ByteBuffer.wrap(read(id)).asReadOnlyBuffer();
+    }
+
+    /** Return a stream delivering the contents of the object with id ID,
+     *  decompressing them as they are read.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    InputStream open(String id) {
+        ByteBuffer entry = entry(id);
+        try {
+            if (entry == null) {
+                File loose = id.length() == Utils.UID_LENGTH ? loose(id) : null;
+                if (loose == null || !loose.isFile()) {
+                    throw new IllegalArgumentException("no object " + id);
+                }
+                return new BufferedInputStream(Files.newInputStream(
+                    loose.toPath()));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        InputStream in = stored(entry);
+        int flags = entry.getInt(FLAGS);
+        if ((flags & CHUNKED) != 0) {
+            return chunks(in);
+        } else if ((flags & DELTA) == 0) {
+            return in;
+        }
+        try (DataInputStream delta = new DataInputStream(in)) {
+            byte[] baseId = new byte[ID_LENGTH];
+            delta.readFully(baseId);
+            delta.readByte();
+            byte[] base = read(Utils.toHex(baseId));
+            return new ByteArrayInputStream(Delta.apply(base,
+                                                        delta.readAllBytes()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Add CONTENTS to this store as the object with id ID, unless that
+     *  object is already present.  CONTENTS are compressed unless they
+     *  appear to be compressed already or do not get smaller. */
+    void write(String id, byte[] contents) {
+        write(id, contents, null);
+    }
+
+    /** Add CONTENTS to this store as the object with id ID, unless that
+     *  object is already present.  If BASEID is not null it names an
+     *  earlier version of the same file, and CONTENTS are stored as a
+     *  line delta against it when that is much smaller, the chain of
+     *  deltas leading to BASEID is shorter than MAX_DELTA_DEPTH, and
+     *  BASEID is neither chunked nor larger than MAX_DELTA_SOURCE. */
+    void write(String id, byte[] contents, String baseId) {
+        if (contains(id)) {
+            return;
+        }
+        open(true);
+        if (baseId != null && contains(baseId)) {
+            int depth = deltaDepth(baseId) + 1;
+            byte[] base = depth > MAX_DELTA_DEPTH ? null : deltaSource(baseId);
+            byte[] delta = base == null ? null : Delta.encode(base, contents);
+            if (delta != null) {
+                ByteBuffer stored =
+                    ByteBuffer.allocate(ID_LENGTH + 1 + delta.length);
+                stored.put(Utils.fromHex(baseId)).put((byte) depth)
+                    .put(delta);
+                append(id, stored.array(), DELTA);
+                return;
+            }
+        }
+        append(id, contents, 0);
+    }
+
+    /** Add the contents of FILE to this store as the object with id ID,
+     *  unless that object is already present.  BASEID is as for
+     *  write(String, byte[], String).  Small files that may be stored as
+     *  deltas are read whole; others are streamed in STREAM_BUFFER-sized
+     *  pieces into the pack, or, if larger than CHUNKED_SIZE, split into
+     *  chunks of which only those not already present are stored.  Throws
+     *  a GitletException if FILE's contents no longer hash to ID. */
+    void write(String id, File file, String baseId) {
+        if (contains(id)) {
+            return;
+        }
+        long size = file.length();
+        if (baseId != null && size <= MAX_DELTA_SOURCE) {
+            byte[] contents = Utils.readContents(file);
+            checkId(id, Utils.sha1(contents), file);
+            write(id, contents, baseId);
+        } else if (size > CHUNKED_SIZE) {
+            writeChunked(id, file);
+        } else {
+            appendFile(id, file);
+        }
+    }
+
+    /** Write the contents of the object with id ID to FILE, replacing
+     *  whatever FILE held, without holding the whole of them in memory
+     *  (unless the object is a delta).  Where the object, or a chunk of it,
+     *  is stored whole and uncompressed, its bytes are copied from the pack
+     *  or loose file to FILE by the operating system without passing
+     *  through this program; other objects are decoded as they are read. */
+    void copyTo(String id, File file) {
+        ByteBuffer entry = entry(id);
+        try {
+            if (entry == null) {
+                File loose = id.length() == Utils.UID_LENGTH ? loose(id) : null;
+                if (loose == null || !loose.isFile()) {
+                    throw new IllegalArgumentException("no object " + id);
+                }
+                Files.copy(loose.toPath(), file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            try (FileChannel out =
+                 FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+                copyTo(id, entry, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append the contents of the object with id ID and index entry ENTRY
+     *  (null if it is loose) to OUT, transferring raw regions of the pack
+     *  directly and streaming anything else. */
+    private void copyTo(String id, ByteBuffer entry, FileChannel out)
+        throws IOException {
+        int flags = entry == null ? DELTA : entry.getInt(FLAGS);
+        if (flags == 0) {
+            long pos = entry.getLong(OFFSET);
+            long end = pos + entry.getInt(LENGTH);
+            while (pos < end) {
+                long n = _pack.transferTo(pos, end - pos, out);
+                if (n <= 0 && pos >= _pack.size()) {
+                    throw new IOException("truncated pack");
+                }
+                pos += n;
+            }
+        } else if ((flags & CHUNKED) != 0) {
+            for (String chunkId : chunkIds(id)) {
+                copyTo(chunkId, entry(chunkId), out);
+            }
+        } else {
+            try (InputStream in = open(id)) {
+                in.transferTo(Channels.newOutputStream(out));
+            }
+        }
+    }
+
+    /** Append the contents of FILE, which must hash to ID, to the pack,
+     *  compressing them on the way unless they look compressed already. */
+    private void appendFile(String id, File file) {
+        open(true);
+        MessageDigest digest = Utils.sha1Digest();
+        Deflater deflater = new Deflater(LEVEL);
+        try (InputStream in = new DigestInputStream(
+                 Files.newInputStream(file.toPath()), digest)) {
+            long offset = _pack.size();
+            byte[] buffer = new byte[STREAM_BUFFER];
+            int n = in.readNBytes(buffer, 0, buffer.length);
+            int flags = 0;
+            PackOutputStream sink = new PackOutputStream(offset);
+            OutputStream out = sink;
+            if (compressible(Arrays.copyOf(buffer, n))) {
+                flags |= DEFLATED;
+                out = new DeflaterOutputStream(sink, deflater, STREAM_BUFFER);
+            }
+            for (; n > 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            out.close();
+            if (!Utils.toHex(digest.digest()).equals(id)) {
+                _pack.truncate(offset);
+                checkId(id, "", file);
+            }
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_LENGTH);
+            entry.putLong(offset).putInt((int) (sink.position() - offset))
+                .putInt(flags);
+            _index.put(Utils.fromHex(id), entry.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Store the contents of FILE, which must hash to ID, as the list of
+     *  ids of the chunks a Chunker cuts it into, adding each chunk to the
+     *  store unless it is already there. */
+    private void writeChunked(String id, File file) {
+        open(true);
+        MessageDigest digest = Utils.sha1Digest();
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        try (InputStream in = new DigestInputStream(
+                 Files.newInputStream(file.toPath()), digest)) {
+            Chunker chunker = new Chunker(in);
+            for (byte[] chunk = chunker.next(); chunk != null;
+                 chunk = chunker.next()) {
+                String chunkId = Utils.sha1(chunk);
+                write(chunkId, chunk);
+                list.write(Utils.fromHex(chunkId));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        checkId(id, Utils.toHex(digest.digest()), file);
+        append(id, list.toByteArray(), CHUNKED);
+    }
+
+    /** Return the ids of the chunks making up the object with id ID, or
+     *  null if it is not a chunked object. */
+    List<String> chunkIds(String id) {
+        ByteBuffer entry = entry(id);
+        if (entry == null || (entry.getInt(FLAGS) & CHUNKED) == 0) {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        try (InputStream in = stored(entry)) {
+            byte[] chunkId = new byte[ID_LENGTH];
+            while (in.readNBytes(chunkId, 0, ID_LENGTH) == ID_LENGTH) {
+                result.add(Utils.toHex(chunkId));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Return the ids of the objects that the stored form of the object
+     *  with id ID depends on: the base of a delta or the chunks of a
+     *  chunked object.  The list is empty for other objects. */
+    List<String> references(String id) {
+        ByteBuffer entry = entry(id);
+        if (entry == null) {
+            return new ArrayList<>();
+        } else if ((entry.getInt(FLAGS) & CHUNKED) != 0) {
+            return chunkIds(id);
+        } else if ((entry.getInt(FLAGS) & DELTA) == 0) {
+            return new ArrayList<>();
+        }
+        try (InputStream in = stored(entry)) {
+            byte[] baseId = new byte[ID_LENGTH];
+            if (in.readNBytes(baseId, 0, ID_LENGTH) < ID_LENGTH) {
+                throw new IllegalArgumentException("corrupt delta " + id);
+            }
+            List<String> result = new ArrayList<>();
+            result.add(Utils.toHex(baseId));
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Remove from this store every object whose id is not in LIVE, which
+     *  must include every object that a member of LIVE references.  Packed
+     *  objects in LIVE are copied, still encoded, into a new pack with a
+     *  new tag and a new index, which then replace the old ones: first the
+     *  index and then the pack, each by an atomic rename.  A reader that
+     *  opened the old pack keeps reading it; one that opens the old pack
+     *  and then the new index sees a mismatched tag and retries.  Loose
+     *  objects in LIVE stay where they are.  Returns the number of bytes
+     *  of disk freed. */
+    long repack(Set<String> live) {
+        long before = diskUsage(_dir);
+        open(false);
+        if (_index != null) {
+            _index.fold();
+            List<byte[]> keys = new ArrayList<>();
+            List<byte[]> entries = new ArrayList<>();
+            _index.scan((key, entry) -> {
+                if (live.contains(Utils.toHex(key))) {
+                    keys.add(key);
+                    entries.add(entry);
+                }
+            });
+            long tag = new SecureRandom().nextLong();
+            File base = Utils.join(_dir, "pack.tmp");
+            copyLive(base, tag, entries);
+            SortedIndex.create(base, ID_LENGTH, ENTRY_LENGTH, tag, keys,
+                               entries);
+            close();
+            try {
+                Files.move(new File(base.getPath() + ".idx").toPath(),
+                           Utils.join(_dir, "pack.idx").toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+                Files.move(base.toPath(), _packFile.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (String id : looseIds()) {
+            if (!live.contains(id)) {
+                loose(id).delete();
+            }
+        }
+        return before - diskUsage(_dir);
+    }
+
+    /** Write a pack with tag TAG to file BASE holding the objects of this
+     *  store's pack whose index entries are ENTRIES, replacing each entry
+     *  with that of the copy.  Objects are copied in the order they appear
+     *  in the pack, so the old pack is read sequentially. */
+    private void copyLive(File base, long tag, List<byte[]> entries) {
+        long[] offsets = new long[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        for (int k = 0; k < order.length; k += 1) {
+            offsets[k] = ByteBuffer.wrap(entries.get(k)).getLong(OFFSET);
+            order[k] = k;
+        }
+        Arrays.sort(order, Comparator.comparingLong(k -> offsets[k]));
+        try (FileChannel out =
+             FileChannel.open(base.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_SIZE);
+            header.putInt(PACK_MAGIC).putInt(PACK_VERSION).putLong(tag)
+                .flip();
+            out.write(header);
+            PackCopier copier = new PackCopier(out);
+            long position = PACK_HEADER_SIZE;
+            for (int k : order) {
+                ByteBuffer entry = ByteBuffer.wrap(entries.get(k));
+                int length = entry.getInt(LENGTH);
+                copier.copy(offsets[k], offsets[k] + length);
+                ByteBuffer copy = ByteBuffer.allocate(ENTRY_LENGTH);
+                copy.putLong(position).putInt(length)
+                    .putInt(entry.getInt(FLAGS));
+                entries.set(k, copy.array());
+                position += length;
+            }
+            copier.flush();
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of bytes in the files under DIR. */
+    private static long diskUsage(File dir) {
+        long result = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                result += file.isDirectory() ? diskUsage(file) : file.length();
+            }
+        }
+        return result;
+    }
+
+    /** Return a stream delivering the concatenated contents of the chunks
+     *  whose ids are read from LIST, opening each chunk only when the
+     *  previous one is exhausted. */
+    private InputStream chunks(InputStream list) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                if (_next == null) {
+                    try {
+                        if (list.readNBytes(_next = new byte[ID_LENGTH], 0,
+                                            ID_LENGTH) < ID_LENGTH) {
+                            _next = null;
+                            list.close();
+                        }
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                }
+                return _next != null;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                InputStream chunk = open(Utils.toHex(_next));
+                _next = null;
+                return chunk;
+            }
+
+            /** Id of the next chunk, if already read from LIST. */
+            private byte[] _next;
+        });
+    }
+
+    /** Throw a GitletException saying that FILE changed while it was being
+     *  added unless the id ACTUAL that its contents hash to is EXPECTED. */
+    private static void checkId(String expected, String actual, File file) {
+        if (!expected.equals(actual)) {
+            throw Utils.error("%s changed while it was being added.",
+                              file.getName());
+        }
+    }
+
+    /** Append CONTENTS to the pack as the object with id ID, with index
+     *  flags FLAGS, compressing them if that helps. */
+    private void append(String id, byte[] contents, int flags) {
+        byte[] stored = contents;
+        if (compressible(contents)) {
+            byte[] deflated = deflate(contents);
+            if (deflated.length < contents.length) {
+                stored = deflated;
+                flags |= DEFLATED;
+            }
+        }
+        try {
+            long offset = _pack.size();
+            ByteBuffer data = ByteBuffer.wrap(stored);
+            while (data.hasRemaining()) {
+                _pack.write(data, offset + data.position());
+            }
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_LENGTH);
+            entry.putLong(offset).putInt(stored.length).putInt(flags);
+            _index.put(Utils.fromHex(id), entry.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the ids of all objects in this store, in lexicographic
+     *  order. */
+    List<String> ids() {
+        TreeSet<String> result = new TreeSet<>();
+        open(false);
+        if (_index != null) {
+            for (byte[] key : _index.keys()) {
+                result.add(Utils.toHex(key));
+            }
+        }
+        result.addAll(looseIds());
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of the objects in this store that start with
+     *  PREFIX, a string of hex digits, in lexicographic order, stopping
+     *  after the first LIMIT of them.  Packed objects are found by a
+     *  range search of the index, and loose ones by listing the one
+     *  fan-out directory they would be in. */
+    List<String> idsWithPrefix(String prefix, int limit) {
+        TreeSet<String> result = new TreeSet<>();
+        if (prefix.length() > Utils.UID_LENGTH
+            || !prefix.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return new ArrayList<>();
+        }
+        prefix = prefix.toLowerCase();
+        if (prefix.length() == Utils.UID_LENGTH) {
+            if (contains(prefix)) {
+                result.add(prefix);
+            }
+            return new ArrayList<>(result);
+        }
+        open(false);
+        if (_index != null) {
+            String low = prefix + "0".repeat(Utils.UID_LENGTH - prefix.length());
+            String high = prefix + "f".repeat(Utils.UID_LENGTH - prefix.length());
+            for (byte[] key : _index.range(Utils.fromHex(low),
+                                           Utils.fromHex(high), limit)) {
+                result.add(Utils.toHex(key));
+            }
+        }
+        List<String> loose = prefix.length() >= 2
+            ? Utils.plainFilenamesIn(Utils.join(_dir, prefix.substring(0, 2)))
+            : null;
+        if (loose != null) {
+            for (String name : loose) {
+                String id = prefix.substring(0, 2) + name;
+                if (id.length() == Utils.UID_LENGTH && id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        } else if (prefix.length() < 2) {
+            for (String id : looseIds()) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        List<String> ids = new ArrayList<>(result);
+        return ids.size() > limit ? ids.subList(0, limit) : ids;
+    }
+
+    /** Return the ids of all loose objects in this store. */
+    private List<String> looseIds() {
+        List<String> result = new ArrayList<>();
+        String[] shards = _dir.list();
+        if (shards != null) {
+            for (String shard : shards) {
+                List<String> loose = shard.length() == 2
+                    ? Utils.plainFilenamesIn(Utils.join(_dir, shard)) : null;
+                if (loose == null) {
+                    continue;
+                }
+                for (String name : loose) {
+                    if (name.length() == Utils.UID_LENGTH - 2) {
+                        result.add(shard + name);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the file that holds the object with id ID, a full SHA-1, if
+     *  it is stored loose. */
+    private File loose(String id) {
+        return Utils.join(_dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Move loose objects stored directly in the store's directory into
+     *  their fan-out subdirectories. */
+    private void shardLooseObjects() {
+        List<String> names = Utils.plainFilenamesIn(_dir);
+        for (String name : names) {
+            if (name.length() != Utils.UID_LENGTH) {
+                continue;
+            }
+            File target = loose(name);
+            target.getParentFile().mkdir();
+            if (!Utils.join(_dir, name).renameTo(target)) {
+                throw Utils.error("could not move object %s", name);
+            }
+        }
+    }
+
+    /** Return the contents of the object with id ID for use as the base
+     *  of a delta, or null if it is stored as chunks or holds more than
+     *  MAX_DELTA_SOURCE bytes.  That is told from its index entry or loose
+     *  file where it can be; a compressed object is read no further than
+     *  needed to tell. */
+    private byte[] deltaSource(String id) {
+        byte[] contents = _cache.get(id);
+        if (contents != null) {
+            return contents;
+        }
+        ByteBuffer entry = entry(id);
+        long size = entry != null ? entry.getInt(LENGTH) : loose(id).length();
+        if (size > MAX_DELTA_SOURCE
+            || entry != null && (entry.getInt(FLAGS) & CHUNKED) != 0) {
+            return null;
+        }
+        try (InputStream in = open(id)) {
+            contents = in.readNBytes((int) MAX_DELTA_SOURCE + 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (contents.length > MAX_DELTA_SOURCE) {
+            return null;
+        }
+        if (contents.length <= MAX_CACHED) {
+            _cache.put(id, contents, contents.length);
+        }
+        return contents;
+    }
+
+    /** Return the number of deltas that must be applied to reconstruct the
+     *  object with id ID: 0 if it is stored whole. */
+    private int deltaDepth(String id) {
+        ByteBuffer entry = entry(id);
+        if (entry == null || (entry.getInt(FLAGS) & DELTA) == 0) {
+            return 0;
+        }
+        try (InputStream in = stored(entry)) {
+            in.skipNBytes(ID_LENGTH);
+            return in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the stored form of the packed object whose
+     *  index entry is ENTRY, decompressed but otherwise undecoded. */
+    private InputStream stored(ByteBuffer entry) {
+        long offset = entry.getLong(OFFSET);
+        int length = entry.getInt(LENGTH);
+        InputStream in =
+            length >= MAP_THRESHOLD ? Utils.inputStream(region(offset, length))
+            : new PackStream(offset, length);
+        if ((entry.getInt(FLAGS) & DEFLATED) != 0) {
+            in = new InflaterInputStream(in, new Inflater(), STREAM_BUFFER) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+        return in;
+    }
+
+    /** Return a read-only buffer over the LENGTH bytes of the pack starting
+     *  at OFFSET: a mapping of them if LENGTH is at least MAP_THRESHOLD, and
+     *  otherwise a copy, which is cheaper for small regions.  Since the pack
+     *  is only appended to, a mapping stays valid as later objects are
+     *  added. */
+    private ByteBuffer region(long offset, int length) {
+        try {
+            if (length >= MAP_THRESHOLD) {
+                return _pack.map(FileChannel.MapMode.READ_ONLY, offset,
+                                 length);
+            }
+            ByteBuffer result = ByteBuffer.allocate(length);
+            while (result.hasRemaining()) {
+                if (_pack.read(result, offset + result.position()) < 0) {
+                    throw new IllegalArgumentException("truncated pack");
+                }
+            }
+            result.flip();
+            return result.asReadOnlyBuffer();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff CONTENTS are worth compressing at the configured
+     *  level: compression is not turned off, and CONTENTS do not start with
+     *  the signature of a format that is compressed already. */
+    private static boolean compressible(byte[] contents) {
+        if (LEVEL == Deflater.NO_COMPRESSION
+            || contents.length < MIN_COMPRESSED) {
+            return false;
+        }
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (contents.length >= signature.length
+                && Arrays.equals(contents, 0, signature.length,
+                                 signature, 0, signature.length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return CONTENTS compressed with zlib at the configured level. */
+    private static byte[] deflate(byte[] contents) {
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            ByteArrayOutputStream result =
+                new ByteArrayOutputStream(contents.length / 2 + 64);
+            DeflaterOutputStream out =
+                new DeflaterOutputStream(result, deflater, STREAM_BUFFER);
+            out.write(contents);
+            out.finish();
+            return result.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** An InputStream over LENGTH bytes of the pack starting at OFFSET,
+     *  filled by positioned reads so that several may be open at once. */
+    private class PackStream extends InputStream {
+
+        /** A stream over bytes [OFFSET .. OFFSET + LENGTH - 1] of the
+         *  pack. */
+        PackStream(long offset, int length) {
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_pos >= _end) {
+                return -1;
+            }
+            len = (int) Math.min(len, _end - _pos);
+            int n = _pack.read(ByteBuffer.wrap(b, off, len), _pos);
+            if (n < 0) {
+                throw new IOException("truncated pack");
+            }
+            _pos += n;
+            return n;
+        }
+
+        /** Position of the next byte to be read and end of the region. */
+        private long _pos, _end;
+    }
+
+    /** Copies regions of the pack, in increasing order of position, to
+     *  the end of another file.  Small regions are gathered through
+     *  COPY_BUFFER-sized blocks read and written whole, so copying many
+     *  small objects takes few system calls; large ones are transferred
+     *  directly. */
+    private class PackCopier {
+
+        /** A copier appending to OUT. */
+        PackCopier(FileChannel out) {
+            _out = out;
+            _in.limit(0);
+        }
+
+        /** Append bytes [START .. END - 1] of the pack to the output. */
+        void copy(long start, long end) throws IOException {
+            if (end - start > COPY_BUFFER) {
+                flush();
+                while (start < end) {
+                    long n = _pack.transferTo(start, end - start, _out);
+                    if (n <= 0) {
+                        throw new IOException("truncated pack");
+                    }
+                    start += n;
+                }
+                return;
+            }
+            if (start < _inStart || end > _inStart + _in.limit()) {
+                _in.clear();
+                _in.limit((int) Math.min(COPY_BUFFER, _pack.size() - start));
+                while (_in.hasRemaining()) {
+                    if (_pack.read(_in, start + _in.position()) < 0) {
+                        throw new IOException("truncated pack");
+                    }
+                }
+                _in.flip();
+                _inStart = start;
+            }
+            if (_outBuffer.remaining() < end - start) {
+                flush();
+            }
+            ByteBuffer region = _in.duplicate();
+            region.limit((int) (end - _inStart));
+            region.position((int) (start - _inStart));
+            _outBuffer.put(region);
+        }
+
+        /** Write out any gathered bytes. */
+        void flush() throws IOException {
+            _outBuffer.flip();
+            while (_outBuffer.hasRemaining()) {
+                _out.write(_outBuffer);
+            }
+            _outBuffer.clear();
+        }
+
+        /** The output. */
+        private final FileChannel _out;
+        /** Block of the pack most recently read, and its position. */
+        private final ByteBuffer _in = ByteBuffer.allocate(COPY_BUFFER);
+        /** Position in the pack of the start of _in. */
+        private long _inStart;
+        /** Bytes waiting to be written. */
+        private final ByteBuffer _outBuffer = ByteBuffer.allocate(COPY_BUFFER);
+    }
+
+    /** An OutputStream that appends to the pack by positioned writes,
+     *  starting at a given offset. */
+    private class PackOutputStream extends OutputStream {
+
+        /** A stream writing to the pack from OFFSET on. */
+        PackOutputStream(long offset) {
+            _pos = offset;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer data = ByteBuffer.wrap(b, off, len);
+            while (data.hasRemaining()) {
+                _pos += _pack.write(data, _pos);
+            }
+        }
+
+        /** Return the position of the next byte to be written. */
+        long position() {
+            return _pos;
+        }
+
+        /** Position of the next byte to be written. */
+        private long _pos;
+    }
+
+    /** Return the index entry (offset, length, flags) of the packed
+     *  object ID, or null if it is not packed. */
+    private ByteBuffer entry(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        open(false);
+        if (_index == null) {
+            return null;
+        }
+        byte[] entry = _index.get(Utils.fromHex(id));
+        return entry == null ? null : ByteBuffer.wrap(entry);
+    }
+
+    /** Open the pack and its index if that has not been done yet,
+     *  creating them if CREATE and they do not exist.  If the index does
+     *  not belong to the pack, because repack is replacing both, wait a
+     *  little and try again.  Safe to call from several threads at once. */
+    private void open(boolean create) {
+        if (_pack != null || (!create && !_packFile.isFile())) {
+            return;
+        }
+        synchronized (this) {
+            for (int attempt = 1; _pack == null; attempt += 1) {
+                try {
+                    openOnce();
+                } catch (SortedIndex.MismatchException excp) {
+                    if (attempt >= OPEN_ATTEMPTS) {
+                        throw excp;
+                    }
+                    try {
+                        Thread.sleep(RETRY_DELAY);
+                    } catch (InterruptedException interrupt) {
+                        throw excp;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Open the pack, creating it if need be, and then its index.  The
+     *  pack is published in _pack only once both are open, so other
+     *  threads never see one without the other. */
+    private void openOnce() {
+        FileChannel pack = null;
+        try {
+            pack = FileChannel.open(_packFile.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_SIZE);
+            if (pack.size() == 0) {
+                header.putInt(PACK_MAGIC).putInt(PACK_VERSION)
+                    .putLong(new SecureRandom().nextLong()).flip();
+                pack.write(header, 0);
+                header.flip();
+            } else {
+                pack.read(header, 0);
+                header.flip();
+            }
+            if (header.getInt() != PACK_MAGIC
+                || header.getInt() != PACK_VERSION) {
+                throw new IllegalArgumentException("bad pack file "
+                                                   + _packFile);
+            }
+            _index = new SortedIndex(Utils.join(_dir, "pack"), ID_LENGTH,
+                                     ENTRY_LENGTH, header.getLong());
+            _pack = pack;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (_pack != pack && pack != null) {
+                try {
+                    pack.close();
+                } catch (IOException excp) {
+                    /* Ignore: the open failed already. */
+                }
+            }
+        }
+    }
+
+    /** Release the files held open by this store.  It reopens them when
+     *  next used. */
+    synchronized void close() {
+        try {
+            if (_index != null) {
+                _index.close();
+            }
+            if (_pack != null) {
+                _pack.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _pack = null;
+        _index = null;
+    }
+
+    /** Index flag marking an object stored in zlib format. */
+    static final int DEFLATED = 1;
+    /** Index flag marking an object stored as the SHA-1 of a base object,
+     *  a byte giving the length of its delta chain, and a Delta against the
+     *  base. */
+    static final int DELTA = 2;
+
+    /** Smallest stored object that is read by mapping the pack rather
+     *  than by copying. */
+    static final int MAP_THRESHOLD = 64 << 10;
+
+    /** Largest file read whole so that it may be stored as a delta. */
+    static final long MAX_DELTA_SOURCE = 1 << 20;
+
+    /** Index flag marking an object stored as the concatenated ids of the
+     *  chunks holding its contents. */
+    static final int CHUNKED = 4;
+
+    /** Files larger than this are stored as chunks.  This also keeps
+     *  every stored object's length within an int. */
+    static final long CHUNKED_SIZE = 4 << 20;
+
+    /** Longest chain of deltas that reading an object may have to apply. */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Positions of the fields of an index entry. */
+    private static final int OFFSET = 0, LENGTH = 8, FLAGS = 12;
+
+    /** Compression level for new objects, from 0 (none) to 9, set by the
+     *  gitlet.compression system property. */
+    static final int LEVEL =
+        Integer.getInteger("gitlet.compression", Deflater.DEFAULT_COMPRESSION);
+
+    /** Objects shorter than this are never compressed. */
+    private static final int MIN_COMPRESSED = 64;
+
+    /** Capacity in bytes of each store's cache of objects, and the
+     *  largest object it holds. */
+    private static final int CACHE_SIZE = 16 << 20, MAX_CACHED = 1 << 20;
+
+    /** Size of the blocks in which repack copies small objects. */
+    private static final int COPY_BUFFER = 1 << 20;
+
+    /** Size of the buffers used when streaming objects. */
+    private static final int STREAM_BUFFER = 8192;
+
+    /** Leading bytes of file formats that are compressed already: PNG,
+     *  JPEG, GIF, ZIP (and jar, docx...), gzip, bzip2, xz, 7z and zstd. */
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+        { (byte) 0x89, 'P', 'N', 'G' },
+        { (byte) 0xff, (byte) 0xd8, (byte) 0xff },
+        { 'G', 'I', 'F', '8' },
+        { 'P', 'K', 3, 4 },
+        { 0x1f, (byte) 0x8b },
+        { 'B', 'Z', 'h' },
+        { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 },
+        { '7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c },
+        { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd },
+    };
+
+    /** Number of times open tries to find a pack and index that belong
+     *  together, and the pause in milliseconds between tries. */
+    private static final int OPEN_ATTEMPTS = 50, RETRY_DELAY = 20;
+
+    /** Name of the file whose presence in a store's directory shows that
+     *  its loose objects are sharded. */
+    private static final String FANOUT_MARKER = "fanout";
+
+    /** Directory holding this store. */
+    private final File _dir;
+    /** The pack file. */
+    private final File _packFile;
+    /** Open channel on the pack, or null if not yet opened.  Volatile so
+     *  that threads reading in parallel see it only once it and _index are
+     *  set. */
+    private volatile FileChannel _pack;
+    /** Index of the pack, or null if not yet opened. */
+    private SortedIndex _index;
+    /** Recently read objects. */
+    private final ObjectCache<byte[]> _cache = new ObjectCache<>(CACHE_SIZE);
+
+}
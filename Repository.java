@@ -1,11 +1,29 @@
 package gitlet;
 
 import javax.swing.event.MouseInputListener;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 // outermost class, acts as the environment. holds important
 // variables, such as the HEAD pointer, currBranch, and more. holds
@@ -24,74 +42,854 @@ public class Repository implements Serializable {
     // path to blobs folder
     File blobsFolder = Utils.join(hiddenGitletFolder, "blobs/");
 
+    // the staging areas, HEAD and currBranch are saved in files of their
+    // own by saveState. the Repo file is only written by init now, so the
+    // copies in it are read only from repositories made by older versions
+    // of gitlet, until their own files are first written
+
     // staging areas. key is file name, value is blob sha1
     HashMap stagedForAddition;
 
-    // holds names of files to be removed
-    Set<String> stagedForRemoval;
+    // holds names of files to be removed
+    Set<String> stagedForRemoval;
+
+    // HEAD pointer, sha1 to HEAD commit
+    String HEAD;
+
+    // name of currBranch
+    String currBranch;
+
+    // object stores for commits, blobs and trees. these hold open files, so
+    // they're never serialized and are reopened on first use
+    private transient ObjectStore commitStore;
+    private transient ObjectStore blobStore;
+    private transient ObjectStore treeStore;
+
+    // the commit graph, which records every commit's parents, time and
+    // generation so history can be walked without reading commits.
+    // opened on first use, like the stores
+    private transient CommitGraph commitGraph;
+
+    // the index of commit messages for the commit graph, opened when find
+    // or a new commit first needs it
+    private transient MessageIndex messageIndex;
+
+    // the catalog of every commit's id, parents, time and message, which
+    // global-log reads instead of the commits
+    private transient CommitCatalog commitCatalog;
+
+    // which of HEAD, the current branch and the staging areas this
+    // command has changed, so only their files are rewritten
+    private transient boolean headChanged;
+    private transient boolean branchChanged;
+    private transient boolean stagingChanged;
+
+    // true while a command that only reads the repository runs: log,
+    // global-log, find or status. the commit graph then keeps any commits
+    // it has to add in memory, and the message index and catalog are
+    // only read, so that these commands write nothing but the stat cache
+    private transient boolean readOnly;
+
+    // the blob ids of working files as of when they were last hashed or
+    // written, so unchanged files aren't read again. loaded on first use
+    // and saved at the end of the command
+    private transient StatCache statCache;
+
+    // how log and global-log show dates. formatters are immutable, so
+    // one does for every commit
+    private static final DateTimeFormatter LOG_DATE_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z").withZone(ZoneId.systemDefault());
+
+    // caches of commits and of the full file maps of trees, shared by
+    // everything in this process. a sha1 always names the same contents,
+    // so entries never go stale. sizes are charged roughly: a commit
+    // costs its encoding plus CACHED_OBJECT_SIZE, and each file in a map
+    // costs CACHED_ENTRY_SIZE
+    private static final ObjectCache<Commit> commitCache = new ObjectCache<>(16 << 20);
+    private static final ObjectCache<Map<String, String>> treeFilesCache =
+        new ObjectCache<>(64 << 20);
+    private static final int CACHED_OBJECT_SIZE = 256;
+    private static final int CACHED_ENTRY_SIZE = 200;
+
+    // identifies the staging file's format
+    private static final int STAGING_MAGIC = 0x474c5354;
+    private static final int STAGING_VERSION = 1;
+
+    // pinned so that repositoryClass files written by earlier versions
+    // stay readable as this class changes
+    private static final long serialVersionUID = 813594141298667741L;
+
+
+    // sets up the repository environment
+    public Repository() {
+
+        // makes all the directories
+        CWD.mkdir();
+        hiddenGitletFolder.mkdir();
+        branchesFolder.mkdir();
+        commitsFolder.mkdir();
+        blobsFolder.mkdir();
+
+        // initialize the stages. keys are equal to the filename
+        // while values are equal to the sha1 of the blob
+        stagedForAddition = new HashMap();
+        stagedForRemoval = new HashSet<>();
+
+        // a new repository starts with an empty commit catalog, which
+        // every commit is added to as it's saved
+        CommitCatalog.rebuild(catalogFile(), commitStore());
+
+        // make and save the initial commit
+        Commit initialCommit = new Commit();
+        String initialCommitSHA1 = this.saveCommit(initialCommit);
+
+        // set HEAD to initial commit
+        HEAD = initialCommitSHA1;
+
+        // make and save the master branch
+        this.makeBranch("master", HEAD);
+
+        // set currBranch to master branch
+        this.currBranch = "master";
+
+        // all of which is saved in its own file
+        headChanged = branchChanged = stagingChanged = true;
+
+    }
+
+    // saves a commit to the .gitlet/commits folder with
+    // its file name equal to its sha1. returns the
+    // sha1 of the commit instance
+    public String saveCommit(Commit newCommit) {
+
+        // commits made from a map of blobs, like the initial commit,
+        // get their tree here
+        treeOf(newCommit);
+
+        // create the sha1
+        byte[] newCommitBytes = newCommit.encode();
+        String newCommitSHA1 = Utils.sha1(newCommitBytes);
+
+        // now save the encoding of newCommit into the commit store
+        commitStore().write(newCommitSHA1, newCommitBytes);
+
+        // and add it to the commit graph, after its parents
+        if (newCommit.parent != null) {
+            graphPosition(newCommit.parent);
+        }
+
+        if (newCommit.mergedInParent != null) {
+            graphPosition(newCommit.mergedInParent);
+        }
+
+        int position = recordCommit(newCommitSHA1, newCommit);
+
+        // and to the commit catalog. a repository made by an older
+        // version of gitlet has one built here instead, holding this
+        // commit too, since read commands leave the catalog alone
+        if (commitCatalog().exists()) {
+
+            commitCatalog().add(newCommitSHA1, newCommit);
+
+        } else {
+
+            CommitCatalog.rebuild(catalogFile(), commitStore());
+
+        }
+
+        // and to the message index, which is built here if there isn't
+        // one for this commit graph yet, as when the graph is new
+        if (messageIndex() != null) {
+
+            messageIndex().add(position, newCommit.message);
+
+        } else {
+
+            buildMessageIndex();
+
+        }
+
+        return newCommitSHA1;
+
+    }
+
+    // the store holding all commits, opened on first use
+    private ObjectStore commitStore() {
+
+        if (commitStore == null) {
+
+            commitStore = new ObjectStore(commitsFolder);
+
+        }
+
+        return commitStore;
+
+    }
+
+    // the store holding all blobs, opened on first use
+    private ObjectStore blobStore() {
+
+        if (blobStore == null) {
+
+            blobStore = new ObjectStore(blobsFolder);
+
+        }
+
+        return blobStore;
+
+    }
+
+    // the store holding all trees, opened on first use. repositories made
+    // by older versions of gitlet don't have the folder yet
+    private ObjectStore treeStore() {
+
+        if (treeStore == null) {
+
+            File treesFolder = Utils.join(hiddenGitletFolder, "trees/");
+            treesFolder.mkdir();
+            treeStore = new ObjectStore(treesFolder);
+
+        }
+
+        return treeStore;
+
+    }
+
+    // the commit graph, opened on first use
+    private CommitGraph commitGraph() {
+
+        if (commitGraph == null) {
+
+            commitGraph = new CommitGraph(commitGraphFile(), readOnly);
+
+        }
+
+        return commitGraph;
+
+    }
+
+    // the file holding the commit graph
+    private File commitGraphFile() {
+
+        return Utils.join(hiddenGitletFolder, "commit-graph");
+
+    }
+
+    // the file holding the commit catalog
+    private File catalogFile() {
+
+        return Utils.join(hiddenGitletFolder, "catalog");
+
+    }
+
+    // the commit catalog, which may not have been built yet
+    private CommitCatalog commitCatalog() {
+
+        if (commitCatalog == null) {
+
+            commitCatalog = new CommitCatalog(catalogFile());
+
+        }
+
+        return commitCatalog;
+
+    }
+
+    // the files HEAD, the current branch's name and the staging areas are
+    // kept in, each on its own so a command rewrites only what it changed
+    private File headFile() {
+
+        return Utils.join(hiddenGitletFolder, "HEAD");
+
+    }
+
+    private File currentBranchFile() {
+
+        return Utils.join(hiddenGitletFolder, "current-branch");
+
+    }
+
+    private File stagingFile() {
+
+        return Utils.join(hiddenGitletFolder, "staging");
+
+    }
+
+    // reads HEAD, the current branch and the staging areas from their
+    // files. repositories from older versions of gitlet keep them in the
+    // Repo file instead, and each one read from there stands until the
+    // first command that changes it writes its file
+    public void loadState() {
+
+        if (headFile().isFile()) {
+
+            HEAD = Utils.readContentsAsString(headFile());
+
+        }
+
+        if (currentBranchFile().isFile()) {
+
+            currBranch = Utils.readContentsAsString(currentBranchFile());
+
+        }
+
+        if (stagingFile().isFile()) {
+
+            readStaging(ByteBuffer.wrap(Utils.readContents(stagingFile())));
+
+        }
+
+    }
+
+    // writes whichever of HEAD, the current branch and the staging areas
+    // have changed. each file is written whole to a temporary file and
+    // renamed over the old one, so a crash leaves either the old or the
+    // new version, never a torn one
+    public void saveState() {
+
+        if (headChanged) {
+
+            Utils.writeContentsAtomically(headFile(), HEAD);
+            headChanged = false;
+
+        }
+
+        if (branchChanged) {
+
+            Utils.writeContentsAtomically(currentBranchFile(), currBranch);
+            branchChanged = false;
+
+        }
+
+        if (stagingChanged) {
+
+            Utils.writeContentsAtomically(stagingFile(), encodeStaging());
+            stagingChanged = false;
+
+        }
+
+    }
+
+    // the staging areas as a compact byte array: a magic number and
+    // version, then the number of files staged for addition and, for each,
+    // its name (a varint length and UTF-8 bytes) and binary blob id, then
+    // the number of files staged for removal and their names
+    private byte[] encodeStaging() {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(STAGING_MAGIC);
+            out.writeInt(STAGING_VERSION);
+
+            @SuppressWarnings("unchecked")
+            Map<String, String> staged = stagedForAddition;
+            TreeMap<String, String> additions = new TreeMap<>(staged);
+            out.writeInt(additions.size());
+
+            for (Map.Entry<String, String> entry : additions.entrySet()) {
+
+                writeName(out, entry.getKey());
+                out.write(Utils.fromHex(entry.getValue()));
+
+            }
+
+            TreeSet<String> removals = new TreeSet<>(stagedForRemoval);
+            out.writeInt(removals.size());
+
+            for (String fileName : removals) {
+
+                writeName(out, fileName);
+
+            }
+
+            out.close();
+            return bytes.toByteArray();
+
+        } catch (IOException e) {
+
+            throw new IllegalArgumentException(e.getMessage());
+
+        }
+
+    }
+
+    // reads the staging areas from data written by encodeStaging
+    @SuppressWarnings("unchecked")
+    private void readStaging(ByteBuffer data) {
+
+        if (data.getInt() != STAGING_MAGIC || data.getInt() != STAGING_VERSION) {
+
+            throw new IllegalArgumentException("bad staging file");
+
+        }
+
+        stagedForAddition = new HashMap();
+        byte[] id = new byte[ObjectStore.ID_LENGTH];
+
+        for (int n = data.getInt(); n > 0; n -= 1) {
+
+            String fileName = readName(data);
+            data.get(id);
+            stagedForAddition.put(fileName, Utils.toHex(id));
+
+        }
+
+        stagedForRemoval = new HashSet<>();
+
+        for (int n = data.getInt(); n > 0; n -= 1) {
+
+            stagedForRemoval.add(readName(data));
+
+        }
+
+    }
+
+    // writes a file name as a varint length and UTF-8 bytes
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(out, utf8.length);
+        out.write(utf8);
+
+    }
+
+    // reads a file name written by writeName
+    private static String readName(ByteBuffer data) {
+
+        byte[] utf8 = new byte[Utils.readVarint(data)];
+        data.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+
+    }
+
+    // the journal of changed working files kept by gitlet watch, if one
+    // is running
+    private WatchJournal watchJournal() {
+
+        return new WatchJournal(CWD, Utils.join(hiddenGitletFolder, "fsmonitor"));
+
+    }
+
+    // the stat cache of the working directory, loaded on first use. if a
+    // watcher is running, files it hasn't seen change aren't even stat'ed
+    private StatCache statCache() {
+
+        if (statCache == null) {
+
+            statCache = new StatCache(Utils.join(hiddenGitletFolder, "index"), watchJournal());
+
+        }
+
+        return statCache;
+
+    }
+
+    // watches the working directory until killed, journaling the names of
+    // changed files so other commands can skip the rest
+    public void watch() {
+
+        // a polling watch service reports changes late and out of order,
+        // so readers could never know that it has caught up with them
+        if (!WatchJournal.supported()) {
+
+            System.out.println("Watching is not supported on this platform.");
+
+        } else if (!watchJournal().watch()) {
+
+            System.out.println("A watcher is already running.");
+
+        }
+
+    }
+
+    // writes the stat cache back, if this command used it. the next
+    // command loads it again, to catch up with the watcher's journal
+    public void saveStatCache() {
+
+        if (statCache != null) {
+
+            statCache.save();
+            statCache = null;
+
+        }
+
+    }
+
+    // makes the commands that follow only read the repository, or not.
+    // the commit graph and message index are closed when this changes,
+    // and opened again the new way when next used
+    public void setReadOnly(boolean readOnly) {
+
+        if (readOnly == this.readOnly) {
+
+            return;
+
+        }
+
+        if (commitGraph != null) {
+
+            commitGraph.close();
+            commitGraph = null;
+
+        }
+
+        if (messageIndex != null) {
+
+            messageIndex.close();
+            messageIndex = null;
+
+        }
+
+        this.readOnly = readOnly;
+
+    }
+
+    // releases the files this repository holds open. the stores and
+    // indexes reopen them when next used
+    public void close() {
+
+        for (ObjectStore store : new ObjectStore[] { commitStore, blobStore, treeStore }) {
+
+            if (store != null) {
+
+                store.close();
+
+            }
+
+        }
+
+        commitStore = blobStore = treeStore = null;
+
+        if (commitGraph != null) {
+
+            commitGraph.close();
+            commitGraph = null;
+
+        }
+
+        if (messageIndex != null) {
+
+            messageIndex.close();
+            messageIndex = null;
+
+        }
+
+        commitCatalog = null;
+        statCache = null;
+
+    }
+
+    // the blob id of the working file fileName, hashing it only if it has
+    // changed since it was last hashed or written
+    private String workingBlob(String fileName) {
+
+        return statCache().blobId(fileName, Utils.join(CWD, fileName));
+
+    }
+
+    // writes the blob blobSHA1 to the working file file, and records it in
+    // the stat cache so the next add or checkout needn't hash it
+    private void writeWorkingFile(String blobSHA1, File file) {
+
+        blobStore().copyTo(blobSHA1, file);
+        statCache().record(file.getName(), file, blobSHA1);
+
+    }
+
+    // the folder holding the message index
+    private File messagesFolder() {
+
+        return Utils.join(hiddenGitletFolder, "messages/");
+
+    }
+
+    // the index of commit messages for the commit graph, opened on first
+    // use, or null if none has been built for the graph yet. each new
+    // commit is added to it as it's saved
+    private MessageIndex messageIndex() {
+
+        if (messageIndex == null) {
+
+            messageIndex = MessageIndex.open(messagesFolder(), commitGraph().tag());
+
+        }
+
+        return messageIndex;
+
+    }
+
+    // builds the message index for the commit graph, when a commit or gc
+    // finds there isn't one. find looks at every commit, including ones no
+    // branch reaches anymore, so they all go into the graph first
+    private void buildMessageIndex() {
+
+        for (String commitSHA1 : commitStore().ids()) {
+            graphPosition(commitSHA1);
+        }
+
+        CommitGraph graph = commitGraph();
+        List<String> messages = new ArrayList<>(graph.size());
+
+        for (int position = 0; position < graph.size(); position += 1) {
+            messages.add(readCommit(graph.id(position)).message);
+        }
+
+        MessageIndex.build(messagesFolder(), graph.tag(), messages);
+
+    }
+
+    // calls action on every commit ever made, in the order they were
+    // made. this is one read through the commit catalog. without an
+    // intact one (left by a crash during a commit, or by an older version
+    // of gitlet) the commits are read from the store instead, on every
+    // core at once; the catalog is left for a commit, gc or
+    // rebuild-catalog to make again
+    private void scanCommits(Consumer<CommitCatalog.Entry> action) {
+
+        if (commitCatalog().exists() && commitCatalog().intact()) {
+
+            commitCatalog().scan(action);
+
+        } else {
+
+            CommitCatalog.entries(commitStore()).forEach(action);
+
+        }
+
+    }
+
+    // returns the position of the given commit in the commit graph.
+    // commits made before the graph existed are added to it here, each
+    // after its parents, so this reads every commit back to the nearest
+    // one already in the graph
+    private int graphPosition(String commitSHA1) {
+
+        CommitGraph graph = commitGraph();
+        int position = graph.position(commitSHA1);
+
+        if (position != CommitGraph.NONE) {
+
+            return position;
+
+        }
+
+        // a stack of commits waiting on their parents
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(commitSHA1);
+
+        while (!pending.isEmpty()) {
+
+            String pendingSHA1 = pending.peek();
+
+            if (graph.position(pendingSHA1) != CommitGraph.NONE) {
+
+                pending.pop();
+                continue;
+
+            }
+
+            Commit commit = readCommit(pendingSHA1);
+            boolean parentsAdded = true;
+
+            for (String parentSHA1 : new String[] { commit.parent, commit.mergedInParent }) {
+
+                if (parentSHA1 != null && graph.position(parentSHA1) == CommitGraph.NONE) {
+
+                    pending.push(parentSHA1);
+                    parentsAdded = false;
+
+                }
+
+            }
+
+            if (parentsAdded) {
+
+                pending.pop();
+                recordCommit(pendingSHA1, commit);
+
+            }
+
+        }
+
+        return graph.position(commitSHA1);
+
+    }
+
+    // adds the given commit, whose parents must already be in the commit
+    // graph, to the graph and returns its position
+    private int recordCommit(String commitSHA1, Commit commit) {
+
+        CommitGraph graph = commitGraph();
+
+        int parentPosition = commit.parent == null
+            ? CommitGraph.NONE : graph.position(commit.parent);
+        int mergedInPosition = commit.mergedInParent == null
+            ? CommitGraph.NONE : graph.position(commit.mergedInParent);
+
+        return graph.add(commitSHA1, parentPosition, mergedInPosition,
+                         commit.timeOfCommit.getTime());
+
+    }
+
+    // returns the full sha1 of the commit whose sha1 starts with the
+    // given id, which may be abbreviated. the commit store's index is
+    // searched for the range of ids with that prefix, so this doesn't
+    // look at every commit. if no commit matches, or more than one does,
+    // this prints why and returns null
+    private String findCommit(String commitId) {
+
+        // two matches are enough to know the id is ambiguous
+        List<String> matches = commitStore().idsWithPrefix(commitId, 2);
+
+        if (matches.isEmpty() || commitId.isEmpty()) {
+
+            System.out.println("No commit with that id exists.");
+            return null;
+
+        }
+
+        if (matches.size() > 1) {
+
+            System.out.println("More than one commit has an id starting with " + commitId + ".");
+            return null;
+
+        }
+
+        return matches.get(0);
+
+    }
+
+    // returns the sha1 of the tree holding the given commit's blobs,
+    // writing one out first for commits from older versions of gitlet
+    // that hold their blobs directly
+    private String treeOf(Commit commit) {
+
+        if (commit.tree == null) {
+
+            // blobs is a raw HashMap, kept raw so old commits still read
+            @SuppressWarnings("unchecked")
+            Map<String, String> blobs = commit.blobs;
+            commit.tree = Tree.write(treeStore(), blobs);
+
+        }
+
+        return commit.tree;
+
+    }
+
+    // returns a map from file name to blob sha1 of every file tracked
+    // by the given commit. the whole tree is read in the first time
+    // and cached by tree sha1 after that, so commits with the same
+    // files share one map. the map mustn't be modified
+    @SuppressWarnings("unchecked")
+    private Map<String, String> trackedFiles(Commit commit) {
+
+        // commits from older versions of gitlet hold their map directly
+        if (commit.blobs != null) {
+
+            return commit.blobs;
+
+        }
+
+        Map<String, String> files = treeFilesCache.get(commit.tree);
+
+        if (files == null) {
+
+            files = Collections.unmodifiableMap(Tree.read(treeStore(), commit.tree));
+            treeFilesCache.put(commit.tree, files, (long) files.size() * CACHED_ENTRY_SIZE);
+
+        }
+
+        return files;
+
+    }
+
+    // returns the blob sha1 of the given file in the given commit, or
+    // null if the commit doesn't track it. only the part of the tree
+    // leading to the file is read
+    private String trackedBlob(Commit commit, String fileName) {
 
-    // HEAD pointer, sha1 to HEAD commit
-    String HEAD;
+        if (commit.blobs != null) {
 
-    // name of currBranch
-    String currBranch;
+            return (String) commit.blobs.get(fileName);
 
+        }
 
-    // sets up the repository environment
-    public Repository() {
+        return Tree.get(treeStore(), commit.tree, fileName);
 
-        // makes all the directories
-        CWD.mkdir();
-        hiddenGitletFolder.mkdir();
-        branchesFolder.mkdir();
-        commitsFolder.mkdir();
-        blobsFolder.mkdir();
+    }
 
-        // initialize the stages. keys are equal to the filename
-        // while values are equal to the sha1 of the blob
-        stagedForAddition = new HashMap();
-        stagedForRemoval = new HashSet<>();
+    // reads in the commit with the given sha1. commits are cached, so
+    // reading the same one again (the HEAD commit, say, or a parent
+    // that splitFinder has already walked past) is free. the commit
+    // returned mustn't be modified
+    private Commit readCommit(String commitSHA1) {
 
-        // make and save the initial commit
-        Commit initialCommit = new Commit();
-        String initialCommitSHA1 = this.saveCommit(initialCommit);
+        Commit commit = commitCache.get(commitSHA1);
 
-        // set HEAD to initial commit
-        HEAD = initialCommitSHA1;
+        if (commit == null) {
 
-        // make and save the master branch
-        this.makeBranch("master", HEAD);
+            ByteBuffer commitBytes = commitStore().buffer(commitSHA1);
+            long size = commitBytes.remaining() + CACHED_OBJECT_SIZE;
 
-        // set currBranch to master branch
-        this.currBranch = "master";
+            commit = Commit.decode(commitBytes);
+
+            // commits from older versions of gitlet hold all their blobs
+            if (commit.blobs != null) {
+                size += (long) commit.blobs.size() * CACHED_ENTRY_SIZE;
+            }
+
+            commitCache.put(commitSHA1, commit, size);
+
+        }
+
+        return commit;
 
     }
 
-    // saves a commit to the .gitlet/commits folder with
-    // its file name equal to its sha1. returns the
-    // sha1 of the commit instance
-    public String saveCommit(Commit newCommit) {
+    // returns a summary of how well this process's caches of commits,
+    // trees and objects did
+    public String cacheStats() {
 
-        // create the sha1
-        byte[] newCommitBytes = Utils.serialize(newCommit);
-        String newCommitSHA1 = Utils.sha1(newCommitBytes);
+        return "commits: " + commitCache
+            + "\ntree file maps: " + treeFilesCache
+            + "\ncommit objects: " + commitStore().cache()
+            + "\ntree objects: " + treeStore().cache()
+            + "\nblob objects: " + blobStore().cache();
 
-        // now create a file for the new commit with the
-        // file name as the new commit's sha1
-        File newCommitFile = Utils.join(commitsFolder, newCommitSHA1);
+    }
 
-        // create the file
-        try {
-            newCommitFile.createNewFile();
-        } catch (
-        IOException e) {
-            e.printStackTrace();
-        }
+    // writes a merge conflict file holding the contents of the given
+    // blobs from the current and given branches. a null sha1 stands for
+    // a file that's absent in that branch. contents are streamed
+    // straight from the blob store
+    private void writeMergeConflict(File mergeFile, String currBlobSHA1,
+                                    String givBlobSHA1) {
 
-        // now save the serialization of newCommit into newCommitFile
-        Utils.writeContents(newCommitFile, newCommitBytes);
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(mergeFile.toPath()))) {
 
-        return newCommitSHA1;
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (currBlobSHA1 != null) {
+                try (InputStream in = blobStore().open(currBlobSHA1)) {
+                    in.transferTo(out);
+                }
+            }
+
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (givBlobSHA1 != null) {
+                try (InputStream in = blobStore().open(givBlobSHA1)) {
+                    in.transferTo(out);
+                }
+            }
+
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
 
     }
 
@@ -103,6 +901,7 @@ public class Repository implements Serializable {
         if (stagedForRemoval.contains(fileName)) {
 
             stagedForRemoval.remove(fileName);
+            stagingChanged = true;
             return;
 
         }
@@ -121,16 +920,17 @@ public class Repository implements Serializable {
         }
 
         // failure case
-        File HEADCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit HEADCommit = Utils.readObject(HEADCommitFile, Commit.class);
+        Commit HEADCommit = readCommit(HEAD);
 
-        // make a blob of the file's contents
-        String newBlob = Utils.readContentsAsString(fileToBeStaged);
-        String newBlobSHA1 = Utils.sha1(newBlob);
+        // hash the file's contents, unless the stat cache says it hasn't
+        // changed since it was last hashed. hashing streams the file rather
+        // than reading it in whole, so binary and huge files are fine
+        String newBlobSHA1 = workingBlob(fileName);
+        String HEADBlobSHA1 = trackedBlob(HEADCommit, fileName);
 
-        if (HEADCommit.blobs.containsKey(fileName)) {
+        if (HEADBlobSHA1 != null) {
 
-            if (HEADCommit.blobs.get(fileName).equals(newBlobSHA1)) {
+            if (HEADBlobSHA1.equals(newBlobSHA1)) {
 
                 return;
 
@@ -139,20 +939,13 @@ public class Repository implements Serializable {
         }
 
 
-        // save the blob
-        File newBlobFile = Utils.join(blobsFolder, newBlobSHA1);
-
-        try {
-            newBlobFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // write the blob file's contents
-        Utils.writeContents(newBlobFile, newBlob);
+        // save the blob. the version in HEAD, if any, is offered as a
+        // base so that small edits are stored as deltas against it
+        blobStore().write(newBlobSHA1, fileToBeStaged, HEADBlobSHA1);
 
         // now add it to the stagedForAddition HashMap
         stagedForAddition.put(fileName, newBlobSHA1);
+        stagingChanged = true;
 
     }
 
@@ -219,6 +1012,14 @@ public class Repository implements Serializable {
     // makes and saves a new commit
     public void makeCommit(String commitMessage) {
 
+        makeCommit(commitMessage, null);
+
+    }
+
+    // makes and saves a new commit. mergedInParent is the sha1 of the
+    // commit merged into HEAD, or null if this isn't a merge commit
+    public void makeCommit(String commitMessage, String mergedInParent) {
+
         // failure cases
         if (stagedForAddition.isEmpty() && stagedForRemoval.isEmpty()) {
 
@@ -244,70 +1045,35 @@ public class Repository implements Serializable {
         // assign the parent of the new commit to the
         // parent commit
         newCommit.parent = HEAD;
+        newCommit.mergedInParent = mergedInParent;
 
-        // now to adjust the commit's stored blobs
-
-        // first we have to read in the parent commit and its blobs
-        File parentCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit parentCommit = Utils.readObject(parentCommitFile, Commit.class);
-        HashMap parentMap = parentCommit.blobs;
-
-        // now we update our new HashMap with that of the staging
-        // area for addition. first, let's get the set of keys
-        // of our parent commit
-        Set <String> parentKeys = parentMap.keySet();
-
-        // get a copy of the staging area for addition
-        HashMap stagingAreaCopy = new HashMap();
-        stagingAreaCopy.putAll(this.stagedForAddition);
-
-        // if the staging area copy doesn't have a key from parentKeys
-        // we'll add that missing key. the end result is the correct
-        // HashMap for the new commit
-        for (String currParentKey : parentKeys) {
-
-            if (stagingAreaCopy.containsKey(currParentKey)) {
-
-                continue;
-
-            // add the missing mapping
-            } else {
-
-                String currKey = currParentKey;
-                String currValue = (String) parentMap.get(currKey);
+        // now to adjust the commit's stored blobs. rather than copying
+        // the parent's whole map, we apply the staged changes to the
+        // parent's tree, which only rewrites the parts of the tree that
+        // lead to changed files
 
-                stagingAreaCopy.put(currKey, currValue);
+        // first we have to read in the parent commit and its tree
+        Commit parentCommit = readCommit(HEAD);
+        String parentTree = treeOf(parentCommit);
 
-            }
-
-        }
+        // the changes are the staging area for addition, plus a null
+        // blob for every file staged for removal
+        @SuppressWarnings("unchecked")
+        Map<String, String> additions = this.stagedForAddition;
+        HashMap<String, String> changes = new HashMap<>(additions);
 
-        // now remove keys that are staged for removal
         for (String fileNameToRemove : this.stagedForRemoval) {
 
-            stagingAreaCopy.remove(fileNameToRemove);
+            changes.put(fileNameToRemove, null);
 
         }
 
-        // now save a reference to this object in the new commit
-        newCommit.blobs = stagingAreaCopy;
+        // now save the resulting tree in the new commit
+        newCommit.blobs = null;
+        newCommit.tree = Tree.update(treeStore(), parentTree, changes);
 
         // finally time to save the new commit!
-
-        // first make a sha1
-        byte[] newCommitBytes = Utils.serialize(newCommit);
-        String newCommitSHA1 = Utils.sha1(newCommitBytes);
-
-        // now save the new commit
-        File newCommitFile = Utils.join(commitsFolder, newCommitSHA1);
-
-        try {
-            newCommitFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        Utils.writeContents(newCommitFile, newCommitBytes);
+        String newCommitSHA1 = saveCommit(newCommit);
 
         // now reassign HEAD
         this.HEAD = newCommitSHA1;
@@ -319,57 +1085,93 @@ public class Repository implements Serializable {
         // clear staging areas
         stagedForRemoval = new HashSet<String>();
         stagedForAddition = new HashMap();
+        headChanged = stagingChanged = true;
 
     }
 
-    // prints out the history of the current commit
+    // prints out the history of the current commit, following first
+    // parents back to the initial commit
     public void printLog() {
 
-        // first read in the HEAD commit
-        File currCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit currCommit = Utils.readObject(currCommitFile, Commit.class);
-        // allows us to access the SHA1 of the current commit
-        String nextCommitSHA1 = HEAD;
+        printLog(Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, CommitWalk.Order.FIRST_PARENT, false);
 
-        // now iterate through the commits, ending at the initial commit
-        while(true) {
+    }
+
+    // prints out at most limit commits of the history of the current
+    // commit, in the given order, leaving out any made before since or
+    // after until (in epoch millis). the history is walked lazily in the
+    // commit graph, so the walk stops once limit commits are printed or
+    // it gets back past since, and each commit is only read for its
+    // message when it's printed. if asJson, each commit is printed as a
+    // line of JSON instead
+    public void printLog(int limit, long since, long until, CommitWalk.Order order,
+                         boolean asJson) {
 
-            System.out.println("===");
-            System.out.println("commit " + nextCommitSHA1);
+        CommitGraph graph = commitGraph();
+        Iterator<Integer> history = new CommitWalk(graph, graphPosition(HEAD), order, since, until);
 
-            // make date look nnnice
-            SimpleDateFormat niceLookingDate = new SimpleDateFormat();
-            niceLookingDate.applyPattern("EEE MMM d HH:mm:ss yyyy Z");
+        for (int printed = 0; printed < limit && history.hasNext(); printed += 1) {
 
-            // hardcode initial time
-            if (currCommit.parent == null) {
+            int position = history.next();
+            String commitSHA1 = graph.id(position);
 
-                System.out.println("Date: Wed Dec 31 16:00:00 1969 -0700");
+            // collect the parents' sha1s
+            String[] parents;
 
+            if (graph.parent(position) == CommitGraph.NONE) {
+                parents = new String[0];
+            } else if (graph.mergedParent(position) == CommitGraph.NONE) {
+                parents = new String[] { graph.id(graph.parent(position)) };
             } else {
+                parents = new String[] { graph.id(graph.parent(position)),
+                                         graph.id(graph.mergedParent(position)) };
+            }
+
+            printCommit(commitSHA1, parents, graph.time(position),
+                        readCommit(commitSHA1).message, asJson);
+
+        }
+
+    }
 
-                System.out.println("Date: " + niceLookingDate.format(currCommit.timeOfCommit));
+    // prints one commit of a log: its sha1, date and message, or if
+    // asJson, a line of JSON giving those and its parents
+    private void printCommit(String commitSHA1, String[] parents, long time,
+                             String message, boolean asJson) {
 
+        if (asJson) {
+
+            StringBuilder line = new StringBuilder(128);
+            line.append("{\"commit\":\"").append(commitSHA1).append("\",\"parents\":[");
+
+            for (int i = 0; i < parents.length; i += 1) {
+                line.append(i == 0 ? "\"" : ",\"").append(parents[i]).append('"');
             }
 
-            System.out.println(currCommit.message);
-            System.out.println();
+            line.append("],\"time\":").append(time)
+                .append(",\"message\":").append(Utils.jsonString(message)).append('}');
+            System.out.println(line);
+            return;
+
+        }
 
-            if (currCommit.parent == null) {
+        System.out.println("===");
+        System.out.println("commit " + commitSHA1);
 
-                break;
+        // hardcode initial time
+        if (parents.length == 0) {
 
-            // go to the next commit
-            } else {
+            System.out.println("Date: Wed Dec 31 16:00:00 1969 -0700");
 
-                nextCommitSHA1 = currCommit.parent;
-                File currCommitParentFile = Utils.join(commitsFolder, currCommit.parent);
-                currCommit = Utils.readObject(currCommitParentFile, Commit.class);
+        } else {
 
-            }
+            System.out.println("Date: " + LOG_DATE_FORMAT.format(Instant.ofEpochMilli(time)));
 
         }
 
+        System.out.println(message);
+        System.out.println();
+
     }
 
     // Takes the version of the file as it exists in the head commit,
@@ -378,14 +1180,14 @@ public class Repository implements Serializable {
     // The new version of the file is not staged.
     public void checkoutFileFromHEAD(String fileToCheckoutName) {
 
-        // make the file object so we can read it later
-        File HEADCommitFile = Utils.join(commitsFolder, HEAD);
-
         // read in HEAD commit
-        Commit HEADCommit = Utils.readObject(HEADCommitFile, Commit.class);
+        Commit HEADCommit = readCommit(HEAD);
+
+        // get sha1 to checkout from HEAD commit
+        String fileToCheckoutBlobSHA1 = trackedBlob(HEADCommit, fileToCheckoutName);
 
         // failure cases
-        if (!HEADCommit.blobs.containsKey(fileToCheckoutName)) {
+        if (fileToCheckoutBlobSHA1 == null) {
 
             System.out.println("File does not exist in that commit.");
 
@@ -393,14 +1195,6 @@ public class Repository implements Serializable {
 
         }
 
-
-        // get sha1 to checkout from HEAD commit
-        String fileToCheckoutBlobSHA1 = (String) HEADCommit.blobs.get(fileToCheckoutName);
-
-        // get contents of the blob
-        File fileBlob = Utils.join(blobsFolder, fileToCheckoutBlobSHA1);
-        String contentsBlob = Utils.readContentsAsString(fileBlob);
-
         // now delete the file that's in the CWD with name fileToCheckoutName
 
         // first let's make this file object
@@ -418,54 +1212,31 @@ public class Repository implements Serializable {
             e.printStackTrace();
         }
 
-        // write contents to this file
-        Utils.writeContents(fileToAddToCWD, contentsBlob);
+        // stream the blob's contents to this file
+        writeWorkingFile(fileToCheckoutBlobSHA1, fileToAddToCWD);
 
     }
 
     public void checkoutFileFromSomeCommit(String fileToCheckoutName, String CommitSHA1ToFind) {
 
         // first we have to find the commit based on the sha1 the user put in
-
-        // let's grab all the commits from the commits' folder
-
-        List<String> allCommitSHA1s = Utils.plainFilenamesIn(commitsFolder);
-
-        // let's iterate through the list to see if there's a commit sha1
-        // that starts with what was put in
-
-        String commitToCheckoutSHA1 = null;
-
-        for (String commitSHA1 : allCommitSHA1s) {
-
-            if (commitSHA1.startsWith(CommitSHA1ToFind)) {
-
-                commitToCheckoutSHA1 = commitSHA1;
-                break;
-
-            } else {
-
-                continue;
-
-            }
-
-        }
+        String commitToCheckoutSHA1 = findCommit(CommitSHA1ToFind);
 
         // failure case
         if (commitToCheckoutSHA1 == null) {
 
-            System.out.println("No commit with that id exists.");
-
             return;
 
         }
 
         // read in the commit object
-        File checkedOutCommitFile = Utils.join(commitsFolder, commitToCheckoutSHA1);
-        Commit checkedOutCommit = Utils.readObject(checkedOutCommitFile, Commit.class);
+        Commit checkedOutCommit = readCommit(commitToCheckoutSHA1);
+
+        // now grab the blob sha1 of the file we want from this commit
+        String fileToCheckoutBlobSHA1 = trackedBlob(checkedOutCommit, fileToCheckoutName);
 
         // failure case
-        if (!checkedOutCommit.blobs.containsKey(fileToCheckoutName)) {
+        if (fileToCheckoutBlobSHA1 == null) {
 
             System.out.println("File does not exist in that commit.");
 
@@ -473,9 +1244,6 @@ public class Repository implements Serializable {
 
         }
 
-        // now grab the blob sha1 of the file we want from this commit
-        String fileToCheckoutBlobSHA1 = (String) checkedOutCommit.blobs.get(fileToCheckoutName);
-
         // now delete the file in the CWD if it exists
         File fileToDelete = Utils.join(CWD, fileToCheckoutName);
         Utils.restrictedDelete(fileToDelete);
@@ -491,9 +1259,7 @@ public class Repository implements Serializable {
 
         // now write the blob to this new file
 
-        File blobToGetFile = Utils.join(blobsFolder, fileToCheckoutBlobSHA1);
-        String blobContents = Utils.readContentsAsString(blobToGetFile);
-        Utils.writeContents(fileToAddToCWD, blobContents);
+        writeWorkingFile(fileToCheckoutBlobSHA1, fileToAddToCWD);
 
     }
 
@@ -520,8 +1286,7 @@ public class Repository implements Serializable {
         // first read in the commit from the wanted branch
         // File branchToCheckoutFile = Utils.join(branchesFolder, branchNameToCheckout);
         String commitToCheckoutSHA1 = Utils.readContentsAsString(branchToCheckoutFile);
-        File commitToCheckoutFile = Utils.join(commitsFolder, commitToCheckoutSHA1);
-        Commit commitToCheckout = Utils.readObject(commitToCheckoutFile, Commit.class);
+        Commit commitToCheckout = readCommit(commitToCheckoutSHA1);
 
         // failure cases
         if (!branchToCheckoutFile.exists()) {
@@ -566,16 +1331,12 @@ public class Repository implements Serializable {
 
         // now add all the files from our commit to our CWD
 
-        Set<String> commitToCheckoutKeys = commitToCheckout.blobs.keySet();
+        Set<String> commitToCheckoutKeys = trackedFiles(commitToCheckout).keySet();
 
         for (String fileNameToAdd : commitToCheckoutKeys) {
 
             // first get the blob name
-            String fileBlobName = (String) commitToCheckout.blobs.get(fileNameToAdd);
-
-            // grab the contents of the blob
-            File blobFile = Utils.join(blobsFolder, fileBlobName);
-            String blobContents = Utils.readContentsAsString(blobFile);
+            String fileBlobName = trackedFiles(commitToCheckout).get(fileNameToAdd);
 
             // now add the new file to the CWD
             File fileToAdd = Utils.join(CWD, fileNameToAdd);
@@ -586,7 +1347,8 @@ public class Repository implements Serializable {
                 e.printStackTrace();
             }
 
-            Utils.writeContents(fileToAdd, blobContents);
+            // stream the contents of the blob into it
+            writeWorkingFile(fileBlobName, fileToAdd);
 
         }
 
@@ -599,6 +1361,7 @@ public class Repository implements Serializable {
         // clear staging area
         stagedForAddition = new HashMap();
         stagedForRemoval = new HashSet();
+        headChanged = branchChanged = stagingChanged = true;
 
     }
 
@@ -608,10 +1371,9 @@ public class Repository implements Serializable {
         List<String> filesInCWD = Utils.plainFilenamesIn(CWD);
 
 
-        File HEADCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit HEADCommit = Utils.readObject(HEADCommitFile, Commit.class);
+        Commit HEADCommit = readCommit(HEAD);
 
-        Set<String> filesInHEADCommit = HEADCommit.blobs.keySet();
+        Set<String> filesInHEADCommit = trackedFiles(HEADCommit).keySet();
 
         HashSet<String> filesInCWDNotHEAD = new HashSet<>();
 
@@ -629,18 +1391,16 @@ public class Repository implements Serializable {
         // see if the files found above are tracked in the destination commit.
         // if they are, see if the blobs are the same. if the blobs are not
         // the same, throw the mawf error
-        Set<String> destCommitFiles = commitToCheckout.blobs.keySet();
+        Set<String> destCommitFiles = trackedFiles(commitToCheckout).keySet();
 
         for (String fileInCWDNotHEAD : filesInCWDNotHEAD) {
 
             if (destCommitFiles.contains(fileInCWDNotHEAD)) {
 
                 // make blob
-                File tempFile = Utils.join(CWD, fileInCWDNotHEAD);
-                String tempBlob = Utils.readContentsAsString(tempFile);
-                String tempBlobSHA1 = Utils.sha1(tempBlob);
+                String tempBlobSHA1 = workingBlob(fileInCWDNotHEAD);
 
-                if (!commitToCheckout.blobs.get(fileInCWDNotHEAD).equals(tempBlobSHA1)) {
+                if (!trackedFiles(commitToCheckout).get(fileInCWDNotHEAD).equals(tempBlobSHA1)) {
 
                     return true;
 
@@ -658,13 +1418,13 @@ public class Repository implements Serializable {
     // it's there
     public void removeFile(String fileToRemoveName) {
 
-        // first let's read in the HEAD commit
-        File HEADCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit HEADCommit = Utils.readObject(HEADCommitFile, Commit.class);
+        // first let's read in the HEAD commit and see if it tracks the file
+        Commit HEADCommit = readCommit(HEAD);
+        boolean trackedInHEAD = trackedBlob(HEADCommit, fileToRemoveName) != null;
 
         // failure case
         if (!stagedForAddition.containsKey(fileToRemoveName)
-            && !HEADCommit.blobs.containsKey(fileToRemoveName)) {
+            && !trackedInHEAD) {
 
             System.out.println("No reason to remove the file.");
 
@@ -674,14 +1434,19 @@ public class Repository implements Serializable {
 
         // first remove the file from the staging area for addition,
         // if it's there
-        stagedForAddition.remove(fileToRemoveName);
+        if (stagedForAddition.remove(fileToRemoveName) != null) {
+
+            stagingChanged = true;
+
+        }
 
         // if the current commit is tracking the file, we'll stage the file
         // for removal and delete it from the CWD
-        if (HEADCommit.blobs.containsKey(fileToRemoveName)) {
+        if (trackedInHEAD) {
 
             // first stage the file for removal
             stagedForRemoval.add(fileToRemoveName);
+            stagingChanged = true;
 
             // now delete the file from the CWD
             File fileToDelete = Utils.join(CWD, fileToRemoveName);
@@ -691,66 +1456,100 @@ public class Repository implements Serializable {
 
     }
 
-    // Like log, except displays information about all commits
-    // ever made. The order of the commits does not matter.
-    public void globalLog() {
+    // prints out every commit ever made, in the order they were made,
+    // as a line of JSON each if asJson
+    public void globalLog(boolean asJson) {
 
-        // iterate through the commitsFolder and print out
-        // the information of each commit
+        scanCommits(commit ->
+            printCommit(commit.id, commit.parents, commit.time, commit.message, asJson));
 
-        List<String> allCommits = Utils.plainFilenamesIn(commitsFolder);
+    }
 
-        for (String commitSHA1 : allCommits) {
+    // makes the commit catalog again from the commits in the store,
+    // reading them on every core at once, and prints how many it holds
+    public void rebuildCatalog() {
 
-            // read in commit object
-            File commitFile = Utils.join(commitsFolder, commitSHA1);
-            Commit commit = Utils.readObject(commitFile, Commit.class);
+        int numCommits = CommitCatalog.rebuild(catalogFile(), commitStore());
 
-            // now print everything out
+        System.out.println("Cataloged " + numCommits + " commits.");
 
-            System.out.println("===");
-            System.out.println("commit " + commitSHA1);
+    }
 
-            // make date look nnnice
-            SimpleDateFormat niceLookingDate = new SimpleDateFormat();
-            niceLookingDate.applyPattern("EEE MMM d HH:mm:ss yyyy Z");
+    // Prints out the ids of all commits that have the given commit message, one per line.
+    // the message index gives the few commits whose messages hash the
+    // same, so only those are read
+    public void find(String commitMessage) {
 
-            // hardcode initial time
-            if (commit.parent == null) {
+        printFound(findCommits(index -> index.exact(commitMessage),
+                               message -> message.equals(commitMessage)));
 
-                System.out.println("Date: Wed Dec 31 16:00:00 1969 -0700");
+    }
 
-            } else {
+    // Prints out the ids of all commits whose messages contain the given
+    // text or, if isRegex, have a match for the given regular expression.
+    // the message index narrows this down to the commits whose messages
+    // have every trigram (run of three characters) of the text, or of the
+    // parts of the regular expression that any match has to contain, and
+    // only those are read
+    public void findMatching(String pattern, boolean isRegex) {
 
-                System.out.println("Date: " + niceLookingDate.format(commit.timeOfCommit));
+        Pattern regex;
 
-            }
+        try {
+
+            regex = isRegex ? Pattern.compile(pattern) : null;
 
-            System.out.println(commit.message);
-            System.out.println();
+        } catch (PatternSyntaxException e) {
+
+            System.out.println("Invalid regular expression: " + e.getDescription());
+            return;
 
         }
 
+        List<String> literals = isRegex ? MessageIndex.literals(pattern) : List.of(pattern);
+
+        printFound(findCommits(index -> index.containing(literals),
+                               message -> isRegex ? regex.matcher(message).find()
+                                                  : message.contains(pattern)));
+
     }
 
-    // Prints out the ids of all commits that have the given commit message, one per line.
-    public void find(String commitMessage) {
+    // returns the ids of the commits whose messages pass matches, in the
+    // order they were made. the message index gives the candidates, and
+    // only those are read and checked. with no index for the commit graph,
+    // or nothing in the message to narrow the search down with, every
+    // commit is checked instead, as the catalog lists them
+    private List<String> findCommits(Function<MessageIndex, BitSet> candidatesIn,
+                                     Predicate<String> matches) {
 
-        // first load in all commits
-        File allCommitFiles = Utils.join(commitsFolder);
-        List<String> allCommitSHA1s = Utils.plainFilenamesIn(allCommitFiles);
+        List<String> matchingCommitSHA1s = new ArrayList<>();
+        MessageIndex index = messageIndex();
+        BitSet candidates = index == null ? null : candidatesIn.apply(index);
 
-        // now search for commits with this message
+        if (candidates == null) {
 
-        Set<String> matchingCommitSHA1s = new HashSet();
+            scanCommits(commit -> {
+                if (matches.test(commit.message)) {
+                    matchingCommitSHA1s.add(commit.id);
+                }
+            });
+
+            return matchingCommitSHA1s;
+
+        }
 
-        for (String commitSHA1 : allCommitSHA1s) {
+        // a commit saved since the graph was opened may be in the index
+        // already, at a position past the end of the graph
+        CommitGraph graph = commitGraph();
+        candidates.clear(graph.size(), Integer.MAX_VALUE);
 
-            // read in commit
-            File commitFile = Utils.join(commitsFolder, commitSHA1);
-            Commit commit = Utils.readObject(commitFile, Commit.class);
+        // now check which candidates really match
+        for (int position = candidates.nextSetBit(0); position >= 0;
+             position = candidates.nextSetBit(position + 1)) {
 
-            if (commit.message.equals(commitMessage)) {
+            String commitSHA1 = graph.id(position);
+
+            if (matches.test(readCommit(commitSHA1).message)) {
 
                 matchingCommitSHA1s.add(commitSHA1);
 
@@ -758,6 +1557,14 @@ public class Repository implements Serializable {
 
         }
 
+        return matchingCommitSHA1s;
+
+    }
+
+    // prints the ids of the commits find found, one per line, in the
+    // order they were made
+    private void printFound(List<String> matchingCommitSHA1s) {
+
         // failure cases
         if (matchingCommitSHA1s.isEmpty()) {
 
@@ -778,39 +1585,18 @@ public class Repository implements Serializable {
 
     public void reset(String commitSHA1ToFind) {
 
-        List<String> allCommitSHA1s = Utils.plainFilenamesIn(commitsFolder);
-
-        // let's iterate through the list to see if there's a commit sha1
-        // that starts with what was put in
-
-        String commitToCheckoutSHA1 = null;
-
-        for (String commitSHA1 : allCommitSHA1s) {
-
-            if (commitSHA1.startsWith(commitSHA1ToFind)) {
-
-                commitToCheckoutSHA1 = commitSHA1;
-                break;
-
-            } else {
-
-                continue;
-
-            }
-
-        }
+        // find the commit based on the sha1 the user put in
+        String commitToCheckoutSHA1 = findCommit(commitSHA1ToFind);
 
         // failure cases
         if (commitToCheckoutSHA1 == null) {
 
-            System.out.println("No commit with that id exists.");
             return;
 
         }
 
         // get a list of all files from that commit
-        File commitToCheckoutFile = Utils.join(commitsFolder, commitToCheckoutSHA1);
-        Commit commitToCheckout = Utils.readObject(commitToCheckoutFile, Commit.class);
+        Commit commitToCheckout = readCommit(commitToCheckoutSHA1);
 
         // failure case
         if (checkoutCommitFailureHelper(commitToCheckout)) {
@@ -821,13 +1607,12 @@ public class Repository implements Serializable {
 
         }
 
-        Set<String> commitToCheckoutFileNames = commitToCheckout.blobs.keySet();
+        Set<String> commitToCheckoutFileNames = trackedFiles(commitToCheckout).keySet();
 
         // remove all tracked files in current commit that aren't tracked in
         // given commit
-        File currCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit currCommit = Utils.readObject(currCommitFile, Commit.class);
-        Set<String> currTrackedFiles = currCommit.blobs.keySet();
+        Commit currCommit = readCommit(HEAD);
+        Set<String> currTrackedFiles = trackedFiles(currCommit).keySet();
 
         for (String fileName : currTrackedFiles) {
 
@@ -856,20 +1641,23 @@ public class Repository implements Serializable {
         File currBranchFile = Utils.join(branchesFolder, currBranch);
         Utils.writeContents(currBranchFile, commitToCheckoutSHA1);
 
-        // change HEAD pointer
-        HEAD = commitSHA1ToFind;
+        // change HEAD pointer. this is the full sha1, even if the user
+        // abbreviated it
+        HEAD = commitToCheckoutSHA1;
 
 
         // clear staging areas
         stagedForRemoval = new HashSet<>();
         stagedForAddition = new HashMap();
+        headChanged = stagingChanged = true;
 
     }
 
     //  Displays what branches currently exist, and marks the
     //  current branch with a *. Also displays what files have
-    //  been staged for addition or removal
-    public void status() {
+    //  been staged for addition or removal. if asJson, each branch
+    //  and file is printed as a line of JSON instead
+    public void status(boolean asJson) {
 
         // first get a list of all branches
         List<String> allBranchNames = Utils.plainFilenamesIn(branchesFolder);
@@ -877,6 +1665,30 @@ public class Repository implements Serializable {
         // now sort the list by lexicographic order
         allBranchNames.sort(Comparator.naturalOrder());
 
+        // and sort the file names staged for addition and removal
+        @SuppressWarnings("unchecked")
+        Set<String> namesForAdd = stagedForAddition.keySet();
+        TreeSet<String> sortedFileNamesForAdd = new TreeSet<>(namesForAdd);
+        TreeSet<String> sortedFileNamesForRem = new TreeSet<>(stagedForRemoval);
+
+        if (asJson) {
+
+            for (String branchName : allBranchNames) {
+
+                System.out.println("{\"branch\":" + Utils.jsonString(branchName)
+                                   + ",\"current\":" + branchName.equals(currBranch) + "}");
+
+            }
+
+            printFilesAsJson("staged", sortedFileNamesForAdd);
+            printFilesAsJson("removed", sortedFileNamesForRem);
+            scanWorkingTree().forEach((fileName, change) ->
+                System.out.println("{\"file\":" + Utils.jsonString(fileName)
+                                   + ",\"state\":\"" + change.label() + "\"}"));
+            return;
+
+        }
+
         // print branches. when we're at the current branch we'll print
         // it out with an asterisk before it
         System.out.println("=== Branches ===");
@@ -900,10 +1712,6 @@ public class Repository implements Serializable {
         // now print the staged files for addition
         System.out.println("=== Staged Files ===");
 
-        // sort file names
-        Set<String> unsortedFileNamesForAdd = stagedForAddition.keySet();
-        TreeSet<String> sortedFileNamesForAdd = new TreeSet(unsortedFileNamesForAdd);
-
         // print em out
         for (String fileName : sortedFileNamesForAdd) {
 
@@ -917,8 +1725,6 @@ public class Repository implements Serializable {
 
         System.out.println("=== Removed Files ===");
 
-        TreeSet<String> sortedFileNamesForRem = new TreeSet(stagedForRemoval);
-
         // print em out
         for (String fileName : sortedFileNamesForRem) {
 
@@ -928,13 +1734,59 @@ public class Repository implements Serializable {
 
         System.out.println();
 
-        // placeholders for EC
+        // compare the working directory against HEAD and the staging area.
+        // the scan comes back sorted by name, so each section just filters it
+        WorkingTreeScan scan = scanWorkingTree();
+
         System.out.println("=== Modifications Not Staged For Commit ===");
 
+        scan.forEach((fileName, change) -> {
+
+            if (change != WorkingTreeScan.Change.UNTRACKED) {
+
+                System.out.println(fileName + " (" + change.label() + ")");
+
+            }
+
+        });
+
         System.out.println();
 
         System.out.println("=== Untracked Files ===");
 
+        scan.forEach((fileName, change) -> {
+
+            if (change == WorkingTreeScan.Change.UNTRACKED) {
+
+                System.out.println(fileName);
+
+            }
+
+        });
+
+    }
+
+    // scans the working directory for changes that aren't staged, hashing
+    // tracked files in parallel where the stat cache can't vouch for them
+    @SuppressWarnings("unchecked")
+    private WorkingTreeScan scanWorkingTree() {
+
+        return new WorkingTreeScan(CWD, statCache(), trackedFiles(readCommit(HEAD)),
+                                   stagedForAddition, stagedForRemoval);
+
+    }
+
+    // prints a line of JSON for each of the given files, saying which
+    // part of the status (staged, removed, ...) it's in
+    private void printFilesAsJson(String state, Collection<String> fileNames) {
+
+        for (String fileName : fileNames) {
+
+            System.out.println("{\"file\":" + Utils.jsonString(fileName)
+                               + ",\"state\":\"" + state + "\"}");
+
+        }
+
     }
 
     public void merge(String givenBranchName) {
@@ -963,11 +1815,10 @@ public class Repository implements Serializable {
         }
 
         String splitSHA1 = splitFinder(givenBranchName);
-        File splitCommitFile = Utils.join(commitsFolder, splitSHA1);
-        Commit splitCommit = Utils.readObject(splitCommitFile, Commit.class);
+        Commit splitCommit = readCommit(splitSHA1);
 
         // get map of split commit blobs
-        Map<String, String> filesInSplit = splitCommit.blobs;
+        Map<String, String> filesInSplit = trackedFiles(splitCommit);
 
         File givBranchTipFile = Utils.join(branchesFolder, givenBranchName);
         String givBranchTipSHA1 = Utils.readContentsAsString(givBranchTipFile);
@@ -988,19 +1839,17 @@ public class Repository implements Serializable {
 
         }
 
-        File givBranchCommitFile = Utils.join(commitsFolder, givBranchTipSHA1);
-        Commit givBranchCommit = Utils.readObject(givBranchCommitFile, Commit.class);
+        Commit givBranchCommit = readCommit(givBranchTipSHA1);
 
         // File currBranchTipFile = Utils.join(branchesFolder, currBranch);
         // String currCommitSHA1 = Utils.readContentsAsString();
-        File currBranchCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit currCommit = Utils.readObject(currBranchCommitFile, Commit.class);
+        Commit currCommit = readCommit(HEAD);
 
 
         // Get the same map from HEAD
         // Get the same map from tip of given
-        Map<String, String> filesInHEAD = currCommit.blobs;
-        Map<String, String> filesInGiven = givBranchCommit.blobs;
+        Map<String, String> filesInHEAD = trackedFiles(currCommit);
+        Map<String, String> filesInGiven = trackedFiles(givBranchCommit);
 
         // collect all untracked files in HEAD
         List<String> filesInCWD = Utils.plainFilenamesIn(CWD);
@@ -1072,9 +1921,7 @@ public class Repository implements Serializable {
                         e.printStackTrace();
                     }
 
-                    File blobFile = Utils.join(blobsFolder, filesInHEAD.get(fileName));
-                    String blobContents = Utils.readContentsAsString(blobFile);
-                    Utils.writeContents(newFile, blobContents);
+                    writeWorkingFile(filesInHEAD.get(fileName), newFile);
 
                 }
 
@@ -1100,20 +1947,10 @@ public class Repository implements Serializable {
                             e.printStackTrace();
                         }
 
-                        File currFile = Utils.join(blobsFolder, filesInHEAD.get(fileName));
-                        File givFile = Utils.join(blobsFolder, filesInGiven.get(fileName));
-
-                        String mergeConflictCont = "<<<<<<< HEAD";
-                        mergeConflictCont += "\n";
-                        mergeConflictCont += Utils.readContentsAsString(currFile);
-                        //mergeConflictCont += "\n";
-                        mergeConflictCont += "=======";
-                        mergeConflictCont += "\n";
-                        mergeConflictCont += Utils.readContentsAsString(givFile);
-                        // mergeConflictCont += "\n";
-                        mergeConflictCont += ">>>>>>>\n";
+                        String currFile = filesInHEAD.get(fileName);
+                        String givFile = filesInGiven.get(fileName);
 
-                        Utils.writeContents(mergeFile, mergeConflictCont);
+                        writeMergeConflict(mergeFile, currFile, givFile);
 
                         stageFileForAddition(fileName);
 
@@ -1143,9 +1980,7 @@ public class Repository implements Serializable {
                         e.printStackTrace();
                     }
 
-                    File blobFile = Utils.join(blobsFolder, filesInHEAD.get(fileName));
-                    String blobContents = Utils.readContentsAsString(blobFile);
-                    Utils.writeContents(newFile, blobContents);
+                    writeWorkingFile(filesInHEAD.get(fileName), newFile);
 
                 }
 
@@ -1163,9 +1998,7 @@ public class Repository implements Serializable {
                         e.printStackTrace();
                     }
 
-                    File blobFile = Utils.join(blobsFolder, filesInHEAD.get(fileName));
-                    String blobContents = Utils.readContentsAsString(blobFile);
-                    Utils.writeContents(newFile, blobContents);
+                    writeWorkingFile(filesInHEAD.get(fileName), newFile);
 
                     baiCatcher = true;
 
@@ -1186,19 +2019,9 @@ public class Repository implements Serializable {
                         e.printStackTrace();
                     }
 
-                    File currFile = Utils.join(blobsFolder, filesInHEAD.get(fileName));
+                    String currFile = filesInHEAD.get(fileName);
 
-                    String mergeConflictCont = "<<<<<<< HEAD";
-                    mergeConflictCont += "\n";
-                    mergeConflictCont += Utils.readContentsAsString(currFile);
-                    //mergeConflictCont += "\n";
-                    mergeConflictCont += "=======";
-                    mergeConflictCont += "\n";
-                    mergeConflictCont += "";
-                    // mergeConflictCont += "\n";
-                    mergeConflictCont += ">>>>>>>\n";
-
-                    Utils.writeContents(mergeFile, mergeConflictCont);
+                    writeMergeConflict(mergeFile, currFile, null);
 
                     stageFileForAddition(fileName);
 
@@ -1229,9 +2052,7 @@ public class Repository implements Serializable {
                         e.printStackTrace();
                     }
 
-                    File blobFile = Utils.join(blobsFolder, filesInGiven.get(fileName));
-                    String blobContents = Utils.readContentsAsString(blobFile);
-                    Utils.writeContents(newFile, blobContents);
+                    writeWorkingFile(filesInGiven.get(fileName), newFile);
 
                     continue;
 
@@ -1250,19 +2071,9 @@ public class Repository implements Serializable {
                         e.printStackTrace();
                     }
 
-                    File givFile = Utils.join(blobsFolder, filesInGiven.get(fileName));
-
-                    String mergeConflictCont = "<<<<<<< HEAD";
-                    mergeConflictCont += "\n";
-                    mergeConflictCont += "";
-                    //mergeConflictCont += "\n";
-                    mergeConflictCont += "=======";
-                    mergeConflictCont += "\n";
-                    mergeConflictCont += Utils.readContentsAsString(givFile);
-                    // mergeConflictCont += "\n";
-                    mergeConflictCont += ">>>>>>>\n";
+                    String givFile = filesInGiven.get(fileName);
 
-                    Utils.writeContents(mergeFile, mergeConflictCont);
+                    writeMergeConflict(mergeFile, null, givFile);
 
                     stageFileForAddition(fileName);
 
@@ -1287,20 +2098,10 @@ public class Repository implements Serializable {
 
                     // make contents of file
 
-                    File currFile = Utils.join(blobsFolder, filesInHEAD.get(fileName));
-                    File givFile = Utils.join(blobsFolder, filesInGiven.get(fileName));
+                    String currFile = filesInHEAD.get(fileName);
+                    String givFile = filesInGiven.get(fileName);
 
-                    String mergeConflictCont = "<<<<<<< HEAD";
-                    mergeConflictCont += "\n";
-                    mergeConflictCont += Utils.readContentsAsString(currFile);
-                    //mergeConflictCont += "\n";
-                    mergeConflictCont += "=======";
-                    mergeConflictCont += "\n";
-                    mergeConflictCont += Utils.readContentsAsString(givFile);
-                    //mergeConflictCont += "\n";
-                    mergeConflictCont += ">>>>>>>\n";
-
-                    Utils.writeContents(mergeFile, mergeConflictCont);
+                    writeMergeConflict(mergeFile, currFile, givFile);
 
                     stageFileForAddition(fileName);
 
@@ -1352,9 +2153,7 @@ public class Repository implements Serializable {
                         e.printStackTrace();
                     }
 
-                    File blobFile = Utils.join(blobsFolder, filesInHEAD.get(fileName));
-                    String blobContents = Utils.readContentsAsString(blobFile);
-                    Utils.writeContents(newFile, blobContents);
+                    writeWorkingFile(filesInHEAD.get(fileName), newFile);
 
                 }
 
@@ -1378,19 +2177,10 @@ public class Repository implements Serializable {
 
         }
 
-        // now commit!
-        makeCommit("Merged " + givenBranchName + " into " + currBranch + ".");
-
-        // now assign mergeParent
-        File HEADCommitFile = Utils.join(commitsFolder, HEAD);
-        Commit HEADCommit = Utils.readObject(HEADCommitFile, Commit.class);
-        HEADCommit.mergedInParent = givBranchTipSHA1;
-
-        // now rewrite the file. although the contents changed, i'm choosing
-        // to ignore changing the sha1 value for now
-
-        byte[] mergeHEADBytes = Utils.serialize(HEADCommit);
-        Utils.writeContents(HEADCommitFile, mergeHEADBytes);
+        // now commit! the merged in parent is part of the commit, so it
+        // has to be assigned before the commit is saved to the store
+        makeCommit("Merged " + givenBranchName + " into " + currBranch + ".",
+                givBranchTipSHA1);
 
 
         if (mergeConflict) {
@@ -1402,110 +2192,139 @@ public class Repository implements Serializable {
 
     }
 
-    // finds split point of two branches, returns SHA1 of that commit
-    public String splitFinder(String givenBranch) {
-
-        // load in branch pointers
-        File currentBranchFile = Utils.join(branchesFolder, currBranch);
-        File givenBranchFile = Utils.join(branchesFolder, givenBranch);
-
-        String currBranchTipSHA1 = Utils.readContentsAsString(currentBranchFile);
-        String givenBranchTipSHA1 = Utils.readContentsAsString(givenBranchFile);
-
-        File currBranchTipCommitFile = Utils.join(commitsFolder, currBranchTipSHA1);
-        File givenBranchTipCommitFile = Utils.join(commitsFolder, givenBranchTipSHA1);
-
-        Commit currBranchTipCommit = Utils.readObject(currBranchTipCommitFile, Commit.class);
-        Commit givenBranchTipCommit = Utils.readObject(givenBranchTipCommitFile, Commit.class);
-
-        // now collect each commit's ancestors
-        Queue<String> currBranchAncestry = new ArrayDeque<>();
-        Set<String> givBranchAncestry = new HashSet<>();
-
-        // first make the currBranch's ancestry
+    // deletes every commit, tree and blob that can't be reached from a
+    // branch, HEAD or the staging area, repacks the ones that are left,
+    // and prints how many bytes this freed. the objects are walked in
+    // parallel: each generation of commits is read at once, along with
+    // their trees
+    public void gc() {
 
-        String currCommitSHA1 = currBranchTipSHA1;
-        Commit currCommit = currBranchTipCommit;
+        // open the stores up front, since the walk reads them from
+        // several threads at once
+        ObjectStore commits = commitStore();
+        ObjectStore trees = treeStore();
+        ObjectStore blobs = blobStore();
 
-        while (true) {
+        Set<String> liveCommits = ConcurrentHashMap.newKeySet();
+        Set<String> liveTrees = ConcurrentHashMap.newKeySet();
+        Set<String> liveBlobs = ConcurrentHashMap.newKeySet();
 
-            currBranchAncestry.add(currCommitSHA1);
+        // the roots are the branch tips, HEAD (which is normally a branch
+        // tip too) and the blobs staged for addition
+        List<String> frontier = new ArrayList<>();
 
-            if (!(currCommit.mergedInParent == null)) {
+        for (String branchName : Utils.plainFilenamesIn(branchesFolder)) {
 
-                currBranchAncestry.add(currCommit.mergedInParent);
+            String tipSHA1 = Utils.readContentsAsString(Utils.join(branchesFolder, branchName));
 
+            if (liveCommits.add(tipSHA1)) {
+                frontier.add(tipSHA1);
             }
 
-            if (currCommit.parent == null) {
-
-                break;
-
-            }
-
-            currCommitSHA1 = currCommit.parent;
-
-
-            // read in parent commit
-            File parentCommitFile = Utils.join(commitsFolder, currCommitSHA1);
-            Commit parentCommit = Utils.readObject(parentCommitFile, Commit.class);
-
-            currCommit = parentCommit;
+        }
 
+        if (commits.contains(HEAD) && liveCommits.add(HEAD)) {
+            frontier.add(HEAD);
         }
 
-        // make givenBranch's ancestry
+        for (Object stagedBlobSHA1 : stagedForAddition.values()) {
+            liveBlobs.add((String) stagedBlobSHA1);
+        }
 
-        String givCommitSHA1 = givenBranchTipSHA1;
-        Commit givCommit = givenBranchTipCommit;
+        List<String> roots = new ArrayList<>(frontier);
 
-        while (true) {
+        // walk back through the commits a generation at a time, marking
+        // each one's tree and blobs on the way
+        while (!frontier.isEmpty()) {
 
-            givBranchAncestry.add(givCommitSHA1);
+            frontier = frontier.parallelStream().flatMap(commitSHA1 -> {
 
-            if (!(givCommit.mergedInParent == null)) {
+                Commit commit = readCommit(commitSHA1);
 
-                givBranchAncestry.add(givCommit.mergedInParent);
+                if (commit.tree != null) {
+                    Tree.reachable(trees, commit.tree, liveTrees, liveBlobs);
+                } else {
+                    liveBlobs.addAll(trackedFiles(commit).values());
+                }
 
-            }
+                return Stream.of(commit.parent, commit.mergedInParent);
 
-            if (givCommit.parent == null) {
+            }).filter(parentSHA1 -> parentSHA1 != null && liveCommits.add(parentSHA1))
+              .collect(Collectors.toList());
 
-                break;
+        }
 
-            }
+        // blobs stored as deltas or chunks keep their bases and chunks
+        // alive too, and bases may be deltas themselves
+        List<String> blobFrontier = new ArrayList<>(liveBlobs);
 
-            givCommitSHA1 = givCommit.parent;
+        while (!blobFrontier.isEmpty()) {
 
-            // read in parent commit
-            File parentCommitFile = Utils.join(commitsFolder, givCommitSHA1);
-            Commit parentCommit = Utils.readObject(parentCommitFile, Commit.class);
+            blobFrontier = blobFrontier.parallelStream()
+                .flatMap(blobSHA1 -> blobs.references(blobSHA1).stream())
+                .filter(liveBlobs::add)
+                .collect(Collectors.toList());
 
-            givCommit = parentCommit;
+        }
 
+        // now throw away everything else
+        long reclaimed = commits.repack(liveCommits)
+            + trees.repack(liveTrees)
+            + blobs.repack(liveBlobs);
+
+        // the commit graph may still hold commits that are gone now, so a
+        // new one is built from the ones that are left, beside the old
+        // one, and moved into place with a new tag. other commands reading
+        // the old graph meanwhile keep it, or open it again once the new
+        // one is all there
+        if (messageIndex != null) {
+            messageIndex.close();
+            messageIndex = null;
         }
 
+        commitGraph().close();
+        commitGraph = CommitGraph.beside(commitGraphFile());
 
-        // now do go through currBranch to find the split point
+        for (String rootSHA1 : roots) {
+            graphPosition(rootSHA1);
+        }
 
-        String splitPointSHA1;
+        commitGraph.replace(commitGraphFile());
+        commitGraph = null;
 
-        for (String currBranchCommit : currBranchAncestry) {
+        // the message index is by graph position too, so one is built for
+        // the new graph, and the old one removed. the catalog lists every
+        // commit, so it's made again too, beside the old one in the same
+        // way
+        buildMessageIndex();
+        CommitCatalog.rebuild(catalogFile(), commits);
 
-            // now see if any commit in the curr branch's history exists in the
-            // given branches history
-            if (givBranchAncestry.contains(currBranchCommit)) {
+        System.out.println("Reclaimed " + reclaimed + " bytes.");
 
-                splitPointSHA1 = currBranchCommit;
+    }
 
-                return splitPointSHA1;
+    // finds split point of two branches, returns SHA1 of that commit.
+    // the split point is the latest common ancestor of the two branch
+    // tips, found by walking down both histories at once in the commit
+    // graph, through every parent, until they meet. when the histories
+    // cross there are several of these, and the one with the highest
+    // generation number is used
+    public String splitFinder(String givenBranch) {
 
-            }
+        // load in branch pointers
+        File currentBranchFile = Utils.join(branchesFolder, currBranch);
+        File givenBranchFile = Utils.join(branchesFolder, givenBranch);
 
+        String currBranchTipSHA1 = Utils.readContentsAsString(currentBranchFile);
+        String givenBranchTipSHA1 = Utils.readContentsAsString(givenBranchFile);
 
-        }
+        CommitGraph graph = commitGraph();
+        List<Integer> splitPoints = graph.mergeBases(graphPosition(currBranchTipSHA1),
+                                                     graphPosition(givenBranchTipSHA1));
 
-        return "";
+        // every history starts at the initial commit, so there's always
+        // at least one
+        return graph.id(splitPoints.get(0));
 
     }
 
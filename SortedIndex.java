@@ -0,0 +1,507 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/** A persistent map from fixed-width byte keys to fixed-width byte values.
+ *  Entries live in two files next to BASE: BASE.idx holds records sorted by
+ *  key (compared as unsigned bytes) so that lookups are a binary search
+ *  of positioned reads, and BASE.log holds recent records in the order they
+ *  were added.  The log is read into memory when the index is opened and is
+ *  folded into the sorted file once it grows past MAX_LOG records, so a
+ *  put costs one small append and only occasionally a sequential rewrite.
+ *  Log records override sorted records with the same key.
+ *
+ *  Both files start with a header giving a magic number, the record layout
+ *  and a TAG chosen by the owner of the index, which lets the owner detect
+ *  an index that does not belong to the data it describes.
+ *  @author
+ */
+class SortedIndex {
+
+    /** Magic number at the start of both index files. */
+    static final int MAGIC = 0x474c4958;
+    /** Format version of the index files. */
+    static final int VERSION = 1;
+    /** Size of the header of both index files, in bytes. */
+    static final int HEADER_SIZE = 24;
+    /** Number of log records that triggers folding the log into the
+     *  sorted file. */
+    static final int MAX_LOG = 1024;
+
+    /** An index whose files are BASE.idx and BASE.log, with keys of
+     *  KEYLENGTH bytes, values of VALUELENGTH bytes, and owner tag TAG.
+     *  The files are created on the first put. */
+    SortedIndex(File base, int keyLength, int valueLength, long tag) {
+        this(base, keyLength, valueLength, tag, MAX_LOG);
+    }
+
+    /** An index as for the four-argument constructor whose log is folded
+     *  once it holds MAXLOG records.  Owners that add many records at a
+     *  time use a longer log, so that folds stay rare. */
+    SortedIndex(File base, int keyLength, int valueLength, long tag,
+                int maxLog) {
+        _sortedFile = new File(base.getPath() + ".idx");
+        _logFile = new File(base.getPath() + ".log");
+        _keyLength = keyLength;
+        _valueLength = valueLength;
+        _recordLength = keyLength + valueLength;
+        _tag = tag;
+        _maxLog = maxLog;
+        _log = new HashMap<>();
+        try {
+            if (_sortedFile.isFile()) {
+                _sorted = FileChannel.open(_sortedFile.toPath(),
+                                           StandardOpenOption.READ);
+                _sortedCount = (int) ((_sorted.size() - HEADER_SIZE)
+                                      / _recordLength);
+                checkHeader(_sorted, _sortedFile);
+            }
+            if (_logFile.isFile()) {
+                readLog();
+            }
+        } catch (MismatchException excp) {
+            close();
+            throw excp;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write a new index whose files are BASE.idx and BASE.log, with
+     *  layout and tag as for the constructor, holding the records whose keys
+     *  are KEYS, which must be in increasing order, and whose values are the
+     *  corresponding elements of VALUES.  Any existing log is removed. */
+    static void create(File base, int keyLength, int valueLength, long tag,
+                       List<byte[]> keys, List<byte[]> values) {
+        File sortedFile = new File(base.getPath() + ".idx");
+        try (FileChannel out =
+             FileChannel.open(sortedFile.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_RECORDS
+                                                 * (keyLength + valueLength));
+            buf.put(header(keyLength, valueLength, tag));
+            for (int k = 0; k < keys.size(); k += 1) {
+                if (buf.remaining() < keyLength + valueLength) {
+                    buf.flip();
+                    while (buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                    buf.clear();
+                }
+                buf.put(keys.get(k)).put(values.get(k));
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        new File(base.getPath() + ".log").delete();
+    }
+
+    /** Return the value stored under KEY, or null if there is none. */
+    byte[] get(byte[] key) {
+        byte[] value = _log.get(ByteBuffer.wrap(key));
+        if (value != null) {
+            return value;
+        }
+        int k = find(key);
+        return k < 0 ? null : value(readRecord(k));
+    }
+
+    /** Store VALUE under KEY, replacing any previous value.  The first
+     *  put after opening cuts off any partial record a crash left at the
+     *  end of the log, which would put those that follow out of step. */
+    void put(byte[] key, byte[] value) {
+        if (key.length != _keyLength || value.length != _valueLength) {
+            throw new IllegalArgumentException("bad index record size");
+        }
+        try {
+            if (_logOut == null) {
+                boolean fresh = !_logFile.isFile();
+                _logOut = FileChannel.open(_logFile.toPath(),
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE,
+                                           StandardOpenOption.APPEND);
+                if (fresh) {
+                    _logOut.write(header());
+                } else {
+                    long records = (_logOut.size() - HEADER_SIZE)
+                        / _recordLength;
+                    _logOut.truncate(HEADER_SIZE + records * _recordLength);
+                }
+            }
+            ByteBuffer record = ByteBuffer.allocate(_recordLength);
+            record.put(key).put(value).flip();
+            while (record.hasRemaining()) {
+                _logOut.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _log.put(ByteBuffer.wrap(key.clone()), value.clone());
+        if (_log.size() >= _maxLog) {
+            fold();
+        }
+    }
+
+    /** Return the number of distinct keys in this index. */
+    int size() {
+        int n = _sortedCount;
+        for (ByteBuffer key : _log.keySet()) {
+            if (find(key.array()) < 0) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return all keys in this index in increasing order. */
+    List<byte[]> keys() {
+        List<byte[]> result = new ArrayList<>(_sortedCount + _log.size());
+        scan((key, value) -> result.add(key));
+        return result;
+    }
+
+    /** Return the keys K in this index with LOW <= K <= HIGH, in increasing
+     *  order, stopping after the first LIMIT of them.  The sorted file is
+     *  binary searched for LOW and read forward from there, so this costs
+     *  about as much as a get when few keys are in the range. */
+    List<byte[]> range(byte[] low, byte[] high, int limit) {
+        List<byte[]> result = new ArrayList<>();
+        ByteBuffer block = ByteBuffer.allocate(0);
+        int blockRecords = RANGE_RECORDS;
+        for (int k = lowerBound(low); k < _sortedCount && result.size() < limit;
+             k += 1) {
+            if (!block.hasRemaining()) {
+                block = ByteBuffer.allocate(Math.min(blockRecords,
+                                                     _sortedCount - k)
+                                            * _recordLength);
+                readFully(block, HEADER_SIZE + (long) k * _recordLength);
+                block.flip();
+                blockRecords = Math.min(2 * blockRecords, BUFFER_RECORDS);
+            }
+            byte[] key = new byte[_keyLength];
+            block.get(key);
+            block.position(block.position() + _valueLength);
+            if (Arrays.compareUnsigned(key, high) > 0) {
+                break;
+            }
+            result.add(key);
+        }
+        for (ByteBuffer wrapped : _log.keySet()) {
+            byte[] key = wrapped.array();
+            if (Arrays.compareUnsigned(key, low) >= 0
+                && Arrays.compareUnsigned(key, high) <= 0
+                && find(key) < 0) {
+                result.add(key);
+            }
+        }
+        result.sort(Arrays::compareUnsigned);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** Call ACTION on each key in this index and its value, in increasing
+     *  order of key.  The sorted file is read sequentially in large
+     *  blocks, so this is much faster than looking up each key. */
+    void scan(BiConsumer<byte[], byte[]> action) {
+        List<byte[]> recent = sortedLogKeys();
+        int r = 0;
+        ByteBuffer block = ByteBuffer.allocate(BUFFER_RECORDS * _recordLength);
+        block.limit(0);
+        long pos = HEADER_SIZE;
+        try {
+            for (int k = 0; k < _sortedCount; k += 1) {
+                if (!block.hasRemaining()) {
+                    block.clear();
+                    block.limit(Math.min(BUFFER_RECORDS, _sortedCount - k)
+                                * _recordLength);
+                    while (block.hasRemaining()) {
+                        if (_sorted.read(block, pos + block.position()) < 0) {
+                            throw new IllegalArgumentException("truncated "
+                                                               + "index");
+                        }
+                    }
+                    pos += block.position();
+                    block.flip();
+                }
+                byte[] key = new byte[_keyLength];
+                byte[] value = new byte[_valueLength];
+                block.get(key).get(value);
+                while (r < recent.size()
+                       && Arrays.compareUnsigned(recent.get(r), key) < 0) {
+                    action.accept(recent.get(r), logValue(recent.get(r)));
+                    r += 1;
+                }
+                if (r < recent.size() && Arrays.equals(recent.get(r), key)) {
+                    value = logValue(key);
+                    r += 1;
+                }
+                action.accept(key, value);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (; r < recent.size(); r += 1) {
+            action.accept(recent.get(r), logValue(recent.get(r)));
+        }
+    }
+
+    /** Release the files held open by this index. */
+    void close() {
+        try {
+            if (_sorted != null) {
+                _sorted.close();
+                _sorted = null;
+            }
+            if (_logOut != null) {
+                _logOut.close();
+                _logOut = null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Merge the log into the sorted file, writing the new sorted file
+     *  under a temporary name and renaming it into place before the log
+     *  is discarded.  A crash between the two steps leaves log records
+     *  that duplicate sorted ones, which is harmless. */
+    void fold() {
+        File tmp = new File(_sortedFile.getPath() + ".tmp");
+        try (FileChannel out =
+             FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_RECORDS
+                                                 * _recordLength);
+            buf.put(header());
+            int[] count = { 0 };
+            scan((key, value) -> {
+                try {
+                    flushIfFull(out, buf);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                buf.put(key).put(value);
+                count[0] += 1;
+            });
+            buf.flip();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(false);
+            close();
+            Files.move(tmp.toPath(), _sortedFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            _logFile.delete();
+            _log.clear();
+            _sorted = FileChannel.open(_sortedFile.toPath(),
+                                       StandardOpenOption.READ);
+            _sortedCount = count[0];
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the contents of BUF to OUT if BUF has no room for another
+     *  record.  Returns BUF, cleared if it was written. */
+    private ByteBuffer flushIfFull(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        if (buf.remaining() < _recordLength) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            buf.clear();
+        }
+        return buf;
+    }
+
+    /** Return the position of KEY among the sorted records, or -1 if it
+     *  is not there. */
+    private int find(byte[] key) {
+        int lo = 0, hi = _sortedCount - 1;
+        byte[] probe = new byte[_keyLength];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            readRecord(mid).get(probe);
+            int c = Arrays.compareUnsigned(probe, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the position of the first sorted record whose key is not
+     *  less than KEY, or the number of sorted records if there is none. */
+    private int lowerBound(byte[] key) {
+        int lo = 0, hi = _sortedCount;
+        byte[] probe = new byte[_keyLength];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            readRecord(mid).get(probe);
+            if (Arrays.compareUnsigned(probe, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the K-th sorted record, positioned at its start. */
+    private ByteBuffer readRecord(int k) {
+        ByteBuffer record = ByteBuffer.allocate(_recordLength);
+        readFully(record, HEADER_SIZE + (long) k * _recordLength);
+        record.flip();
+        return record;
+    }
+
+    /** Fill the remainder of BUF from the sorted file, starting at file
+     *  position POS. */
+    private void readFully(ByteBuffer buf, long pos) {
+        int start = buf.position();
+        try {
+            while (buf.hasRemaining()) {
+                if (_sorted.read(buf, pos + buf.position() - start) < 0) {
+                    throw new IllegalArgumentException("truncated index");
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the value of the log record with key KEY. */
+    private byte[] logValue(byte[] key) {
+        return _log.get(ByteBuffer.wrap(key));
+    }
+
+    /** Return the value part of RECORD. */
+    private byte[] value(ByteBuffer record) {
+        byte[] value = new byte[_valueLength];
+        ByteBuffer dup = record.duplicate();
+        dup.position(_keyLength);
+        dup.get(value);
+        return value;
+    }
+
+    /** Return the keys of the log, sorted. */
+    private List<byte[]> sortedLogKeys() {
+        List<byte[]> result = new ArrayList<>(_log.size());
+        for (ByteBuffer key : _log.keySet()) {
+            result.add(key.array());
+        }
+        result.sort(Arrays::compareUnsigned);
+        return result;
+    }
+
+    /** Read the records of the log file into _log. */
+    private void readLog() throws IOException {
+        try (FileChannel in = FileChannel.open(_logFile.toPath(),
+                                               StandardOpenOption.READ)) {
+            checkHeader(in, _logFile);
+            ByteBuffer data = ByteBuffer.allocate((int) (in.size()
+                                                         - HEADER_SIZE));
+            while (data.hasRemaining()
+                   && in.read(data, HEADER_SIZE + data.position()) >= 0) {
+                continue;
+            }
+            data.flip();
+            while (data.remaining() >= _recordLength) {
+                byte[] key = new byte[_keyLength];
+                byte[] value = new byte[_valueLength];
+                data.get(key).get(value);
+                _log.put(ByteBuffer.wrap(key), value);
+            }
+        }
+    }
+
+    /** Return a fresh header for this index's files. */
+    private ByteBuffer header() {
+        return header(_keyLength, _valueLength, _tag);
+    }
+
+    /** Return a fresh header for index files with keys of KEYLENGTH bytes,
+     *  values of VALUELENGTH bytes and owner tag TAG. */
+    private static ByteBuffer header(int keyLength, int valueLength,
+                                     long tag) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(keyLength)
+            .putInt(valueLength).putLong(tag).flip();
+        return header;
+    }
+
+    /** Check that the header of IN, the contents of FILE, matches this
+     *  index. */
+    private void checkHeader(FileChannel in, File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        in.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE
+            || !header.equals(header())) {
+            throw new MismatchException("index " + file.getName()
+                                        + " does not match its data");
+        }
+    }
+
+    /** Thrown when an index file's header does not match the layout and
+     *  tag it is opened with, as when its owner's data has been replaced
+     *  since the index was found. */
+    static class MismatchException extends IllegalArgumentException {
+        /** An exception with message MSG. */
+        MismatchException(String msg) {
+            super(msg);
+        }
+
+        /** Serialization version. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Number of records buffered while rewriting the sorted file. */
+    private static final int BUFFER_RECORDS = 4096;
+    /** Number of records first read at a time by range, which usually
+     *  wants only a few.  Later reads double in size, up to
+     *  BUFFER_RECORDS. */
+    private static final int RANGE_RECORDS = 64;
+
+    /** Files holding the sorted records and the log. */
+    private final File _sortedFile, _logFile;
+    /** Record layout. */
+    private final int _keyLength, _valueLength, _recordLength;
+    /** Owner tag stored in the headers. */
+    private final long _tag;
+    /** Number of log records that triggers a fold. */
+    private final int _maxLog;
+    /** Open channel on the sorted file, or null if it does not exist. */
+    private FileChannel _sorted;
+    /** Number of records in the sorted file. */
+    private int _sortedCount;
+    /** Open channel for appending to the log, or null. */
+    private FileChannel _logOut;
+    /** Contents of the log, keyed by wrapped key arrays. */
+    private final Map<ByteBuffer, byte[]> _log;
+
+}
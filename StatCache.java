@@ -0,0 +1,348 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** A persistent cache of the blob ids of files in the working directory,
+ *  so that a file that has not changed since it was last hashed need not
+ *  be read again.  For each file name it records the file's blob id with
+ *  the modification time, size and file key (on Unix, the device and
+ *  inode) the file had when hashed.  A file whose attributes still match
+ *  is taken to have the same contents.
+ *
+ *  That is not safe for a file modified within the timestamp resolution of
+ *  the moment it was hashed: a second change in the same tick may keep
+ *  both time and size.  As in git, an entry counts only if the file's
+ *  modification time is strictly earlier than the time the cache file was
+ *  last written, which comes from the same file system clock.  Entries
+ *  that fail this test ("racily clean" ones) are hashed again when looked
+ *  up, and those not looked up are dropped when the cache is saved, so
+ *  that they cannot pass the test against a later cache file.
+ *
+ *  When a watcher keeps a WatchJournal of the working directory, the cache
+ *  also holds a token of that journal, and marks the entries known to be
+ *  right as of the token.  Once the watcher has caught up with the
+ *  loading command (see WatchJournal), an entry so marked whose file the
+ *  journal does not name after the token is trusted without even reading
+ *  the file's attributes, while the file of an entry it does name is
+ *  hashed again, as a racily clean one would be.  Other entries, and all
+ *  of them if the watcher does not catch up, are checked as above.
+ *  A cache saved while a watcher runs takes a new token, as of when it
+ *  was loaded, and marks the entries it trusted or made.
+ *
+ *  The file FILE starts with a magic number, a version, the journal token
+ *  (a session and an offset) and a count, followed by one record per
+ *  entry: the name as a varint length and UTF-8 bytes, the 20-byte blob
+ *  id, the modification time in nanoseconds, the size, the file key as a
+ *  length and UTF-8 bytes, and a byte that is 1 iff the entry is marked.
+ *
+ *  The cache only repeats what the working files say, and is never taken
+ *  for the state of the repository, so even commands that otherwise only
+ *  read the repository, like status, save it.  Each save writes a file of
+ *  its own and renames it over FILE, so that commands saving at once
+ *  never mix their records, and a reader finds one whole cache or
+ *  another.
+ *
+ *  Lookups and records may be made from several threads at once; saving
+ *  may not overlap them.
+ *  @author
+ */
+class StatCache {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x474c5343;
+    /** Format version of the file. */
+    static final int VERSION = 2;
+
+    /** The cache stored in FILE, which need not exist yet.  A file that
+     *  cannot be read is treated as empty. */
+    StatCache(File file) {
+        this(file, null);
+    }
+
+    /** The cache stored in FILE, which need not exist yet, of the
+     *  directory whose changes JOURNAL records.  JOURNAL may be null, when
+     *  every entry is checked.  A file that cannot be read is treated as
+     *  empty. */
+    StatCache(File file, WatchJournal journal) {
+        _file = file;
+        _entries = new ConcurrentHashMap<>();
+        if (file.isFile()) {
+            try {
+                load();
+            } catch (IOException | BufferUnderflowException
+                     | IllegalArgumentException excp) {
+                _entries.clear();
+                _session = WatchJournal.NO_SESSION;
+            }
+        }
+        if (journal != null) {
+            _changed = journal.changedSince(_session, _offset);
+            if (journal.session() != _session || journal.end() != _offset) {
+                _session = journal.session();
+                _offset = journal.end();
+                _dirty = true;
+            }
+        }
+    }
+
+    /** Return the blob id of FILE, whose name in the working directory is
+     *  NAME, or null if it is not a plain file.  The file is hashed only if
+     *  its entry is missing, stale, racily clean or named in the journal.  While a watcher runs,
+     *  an entry checked against the file is marked afresh. */
+    String blobId(String name, File file) {
+        Entry entry = _entries.get(name);
+        if (entry != null && suspect(name, entry)) {
+            entry = null;
+        }
+        if (entry != null && unchanged(name, entry)) {
+            return entry.blobId;
+        }
+        BasicFileAttributes attrs = attributes(file);
+        if (attrs == null || !attrs.isRegularFile()) {
+            if (_entries.remove(name) != null) {
+                _dirty = true;
+            }
+            return null;
+        }
+        if (entry != null && entry.matches(attrs)) {
+            if (_session != WatchJournal.NO_SESSION) {
+                put(name, entry.blobId, attrs);
+            }
+            return entry.blobId;
+        }
+        String blobId = Utils.sha1File(file);
+        put(name, blobId, attrs);
+        return blobId;
+    }
+
+    /** Record that FILE, named NAME, has just been written with the
+     *  contents of the blob with id BLOBID. */
+    void record(String name, File file, String blobId) {
+        BasicFileAttributes attrs = attributes(file);
+        if (attrs != null) {
+            put(name, blobId, attrs);
+        }
+    }
+
+    /** Write the cache back to its file if it has changed, by writing a
+     *  new file and renaming it into place.  Racily clean entries, and
+     *  entries for files the journal names, that were not hashed again
+     *  are left out. */
+    void save() {
+        if (!_dirty) {
+            return;
+        }
+        _entries.entrySet().removeIf(e -> suspect(e.getKey(), e.getValue()));
+        File tmp = new File(_file.getPath() + ".tmp-"
+                            + Long.toHexString(new Random().nextLong()));
+        try (FileChannel out =
+             FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            buf.putInt(MAGIC).putInt(VERSION).putLong(_session)
+                .putLong(_offset).putInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] key = e.getValue().fileKey
+                    .getBytes(StandardCharsets.UTF_8);
+                int size = 2 * 5 + name.length + key.length
+                    + ObjectStore.ID_LENGTH + 17;
+                if (buf.remaining() < size) {
+                    flush(out, buf);
+                    if (buf.capacity() < size) {
+                        buf = ByteBuffer.allocate(size);
+                    }
+                }
+                putBytes(buf, name);
+                buf.put(Utils.fromHex(e.getValue().blobId))
+                    .putLong(e.getValue().mtime).putLong(e.getValue().size);
+                putBytes(buf, key);
+                Entry entry = e.getValue();
+                buf.put((byte) (entry.fresh || unchanged(e.getKey(), entry)
+                                ? 1 : 0));
+            }
+            flush(out, buf);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), _file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _dirty = false;
+    }
+
+    /** Read the entries in _file, marking as racy those whose files were
+     *  modified no earlier than _file was written. */
+    private void load() throws IOException {
+        long written = Files.getLastModifiedTime(_file.toPath())
+            .to(TimeUnit.NANOSECONDS);
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(_file.toPath()));
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new IllegalArgumentException("bad stat cache");
+        }
+        _session = buf.getLong();
+        _offset = buf.getLong();
+        byte[] id = new byte[ObjectStore.ID_LENGTH];
+        for (int n = buf.getInt(); n > 0; n -= 1) {
+            String name = getString(buf);
+            buf.get(id);
+            long mtime = buf.getLong();
+            long size = buf.getLong();
+            String fileKey = getString(buf);
+            boolean marked = buf.get() != 0;
+            _entries.put(name, new Entry(Utils.toHex(id), mtime, size,
+                                         fileKey, mtime >= written, marked,
+                                         false));
+        }
+    }
+
+    /** Record BLOBID as the id of the file NAME, which has attributes
+     *  ATTRS. */
+    private void put(String name, String blobId, BasicFileAttributes attrs) {
+        _entries.put(name, new Entry(blobId, mtime(attrs), attrs.size(),
+                                     fileKey(attrs), false, false, true));
+        _dirty = true;
+    }
+
+    /** Return true iff ENTRY, the entry for NAME, must not be believed
+     *  without hashing the file: it is racily clean, or it was loaded and
+     *  the journal names NAME since. */
+    private boolean suspect(String name, Entry entry) {
+        return !entry.fresh
+            && (entry.racy || _changed != null && _changed.contains(name));
+    }
+
+    /** Return true iff ENTRY, the entry for NAME, was marked when loaded
+     *  and the journal does not name NAME since the loaded token, so that
+     *  its file is as the entry says. */
+    private boolean unchanged(String name, Entry entry) {
+        return entry.marked && _changed != null && !_changed.contains(name);
+    }
+
+    /** Return the attributes of FILE, or null if it does not exist. */
+    private static BasicFileAttributes attributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(),
+                                        BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return the modification time in ATTRS, in nanoseconds. */
+    private static long mtime(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Return the file key in ATTRS as a string, which is empty on file
+     *  systems without file keys. */
+    private static String fileKey(BasicFileAttributes attrs) {
+        return Objects.toString(attrs.fileKey(), "");
+    }
+
+    /** Append BYTES to BUF as a varint length and the bytes. */
+    private static void putBytes(ByteBuffer buf, byte[] bytes) {
+        int n = bytes.length;
+        while ((n & ~0x7f) != 0) {
+            buf.put((byte) ((n & 0x7f) | 0x80));
+            n >>>= 7;
+        }
+        buf.put((byte) n);
+        buf.put(bytes);
+    }
+
+    /** Return a string written by putBytes, read from BUF. */
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[Utils.readVarint(buf)];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write the contents of BUF to OUT and clear it. */
+    private static void flush(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /** What is known of one file. */
+    private static class Entry {
+        /** An entry for a file with blob id BLOBID, modification time
+         *  MTIME, size SIZE and file key FILEKEY, which is racily clean
+         *  iff RACY.  It was marked as right as of the journal token iff
+         *  MARKED, and was made since the cache was loaded iff FRESH. */
+        Entry(String blobId, long mtime, long size, String fileKey,
+              boolean racy, boolean marked, boolean fresh) {
+            this.blobId = blobId;
+            this.mtime = mtime;
+            this.size = size;
+            this.fileKey = fileKey;
+            this.racy = racy;
+            this.marked = marked;
+            this.fresh = fresh;
+        }
+
+        /** Return true iff a file with attributes ATTRS looks the same as
+         *  when this entry was made. */
+        boolean matches(BasicFileAttributes attrs) {
+            return attrs.size() == size && mtime(attrs) == mtime
+                && fileKey(attrs).equals(fileKey);
+        }
+
+        /** The file's blob id. */
+        final String blobId;
+        /** Its modification time, in nanoseconds. */
+        final long mtime;
+        /** Its size. */
+        final long size;
+        /** Its file key. */
+        final String fileKey;
+        /** True iff the file may have changed without its attributes
+         *  showing it. */
+        final boolean racy;
+        /** True iff this entry was marked in the file. */
+        final boolean marked;
+        /** True iff this entry was made since the cache was loaded, and
+         *  so is right as of the new token. */
+        final boolean fresh;
+    }
+
+    /** Size of the buffer used to write the file. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The file holding the cache. */
+    private final File _file;
+    /** The entries, by file name. */
+    private final Map<String, Entry> _entries;
+    /** Token of the journal as of which marked entries are right. */
+    private long _session, _offset;
+    /** Names the journal records since the loaded token, or null if it
+     *  cannot say. */
+    private Set<String> _changed;
+    /** True iff the entries differ from those in _file. */
+    private volatile boolean _dirty;
+
+}
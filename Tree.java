@@ -0,0 +1,364 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** The set of files tracked by a commit, as a content-addressed hash trie
+ *  of tree objects.  A tree node is either a leaf holding up to MAX_LEAF
+ *  entries mapping file names to blob ids, or an inner node with up to
+ *  FANOUT children, where child D holds the entries whose names' hashes
+ *  have D as their digit at the node's depth.  Whether a node is a leaf
+ *  depends only on how many entries lie below it, so a set of files always
+ *  has the same tree, and two commits share every node whose entries are
+ *  the same in both.  Changing a few files rewrites only the nodes on the
+ *  paths to those files: at most a leaf and a few inner nodes apiece,
+ *  however many files are tracked.
+ *  @author
+ */
+class Tree {
+
+    /** Largest number of entries in a leaf, except at MAX_DEPTH. */
+    static final int MAX_LEAF = 64;
+    /** Number of children of an inner node. */
+    static final int FANOUT = 16;
+    /** Bits of a name's hash consumed by each level. */
+    static final int DIGIT_BITS = 4;
+    /** Depth at which names' hashes run out, so nodes are always leaves. */
+    static final int MAX_DEPTH = 32 / DIGIT_BITS;
+    /** First bytes of an encoded tree node; the last is the format
+     *  version. */
+    static final byte[] MAGIC = { 'G', 'L', 'T', 1 };
+
+    /** Return the id of the tree in STORE holding FILES, a map from file
+     *  name to blob id, writing whatever nodes are not there yet. */
+    static String write(ObjectStore store, Map<String, String> files) {
+        return build(store, new TreeMap<>(files), 0)._id;
+    }
+
+    /** Return the id of the tree in STORE obtained from the tree with id
+     *  ROOT by applying CHANGES, which map file names to their new blob
+     *  ids, or to null for files to be dropped.  Only the nodes leading to
+     *  changed files are read and rewritten. */
+    static String update(ObjectStore store, String root,
+                         Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        return load(store, root).update(store, 0, changes)._id;
+    }
+
+    /** Return the blob id of file NAME in the tree ROOT of STORE, or null
+     *  if it has no such file.  Only the nodes on the path to NAME are
+     *  read. */
+    static String get(ObjectStore store, String root, String name) {
+        Tree node = load(store, root);
+        for (int depth = 0; node._entries == null; depth += 1) {
+            String child = node._children[digit(name, depth)];
+            if (child == null) {
+                return null;
+            }
+            node = load(store, child);
+        }
+        return node._entries.get(name);
+    }
+
+    /** Return all entries of the tree ROOT of STORE, as a map from file
+     *  name to blob id. */
+    static HashMap<String, String> read(ObjectStore store, String root) {
+        HashMap<String, String> result = new HashMap<>();
+        load(store, root).collect(store, result);
+        return result;
+    }
+
+    /** Add to TREES the ids of all nodes of the tree ROOT of STORE, and to
+     *  BLOBS the blob ids of all its entries.  Nodes already in TREES are
+     *  taken to have been visited along with their descendants, so trees
+     *  that share nodes may be walked in turn, or at once from several
+     *  threads if TREES and BLOBS are concurrent sets.  Children of inner
+     *  nodes are walked in parallel. */
+    static void reachable(ObjectStore store, String root, Set<String> trees,
+                          Set<String> blobs) {
+        if (!trees.add(root)) {
+            return;
+        }
+        Tree node = load(store, root);
+        if (node._entries != null) {
+            blobs.addAll(node._entries.values());
+        } else {
+            Arrays.stream(node._children).parallel()
+                .filter(Objects::nonNull)
+                .forEach(child -> reachable(store, child, trees, blobs));
+        }
+    }
+
+    /** Write ENTRIES to OUT in name order, each as its name followed by
+     *  its ID_LENGTH-byte blob id.  A name is written as the number of
+     *  leading bytes it shares with the previous name, followed by the rest
+     *  as a length and UTF-8 bytes.  Numbers are varints. */
+    static void writeEntries(DataOutputStream out,
+                             SortedMap<String, String> entries)
+        throws IOException {
+        Utils.writeVarint(out, entries.size());
+        byte[] prev = new byte[0];
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            while (shared < name.length && shared < prev.length
+                   && name[shared] == prev[shared]) {
+                shared += 1;
+            }
+            Utils.writeVarint(out, shared);
+            Utils.writeVarint(out, name.length - shared);
+            out.write(name, shared, name.length - shared);
+            out.write(Utils.fromHex(entry.getValue()));
+            prev = name;
+        }
+    }
+
+    /** Read entries written by writeEntries from the current position of
+     *  IN into RESULT. */
+    static void readEntries(ByteBuffer in, Map<String, String> result) {
+        byte[] name = new byte[64];
+        byte[] id = new byte[ObjectStore.ID_LENGTH];
+        for (int n = Utils.readVarint(in); n > 0; n -= 1) {
+            int shared = Utils.readVarint(in);
+            int length = shared + Utils.readVarint(in);
+            if (length > name.length) {
+                name = Arrays.copyOf(name, Math.max(length, 2 * name.length));
+            }
+            in.get(name, shared, length - shared);
+            in.get(id);
+            result.put(new String(name, 0, length, StandardCharsets.UTF_8),
+                       Utils.toHex(id));
+        }
+    }
+
+    /** A leaf node holding ENTRIES. */
+    private Tree(TreeMap<String, String> entries) {
+        _entries = entries;
+        _count = entries.size();
+    }
+
+    /** An inner node with children CHILDREN holding COUNT entries in
+     *  all. */
+    private Tree(String[] children, int count) {
+        _children = children;
+        _count = count;
+    }
+
+    /** Return the node at depth DEPTH holding ENTRIES, written to STORE.
+     *  ENTRIES becomes the property of the result. */
+    private static Tree build(ObjectStore store,
+                              TreeMap<String, String> entries, int depth) {
+        if (entries.size() <= MAX_LEAF || depth >= MAX_DEPTH) {
+            return new Tree(entries).save(store);
+        }
+        List<TreeMap<String, String>> parts = split(entries, depth);
+        String[] children = new String[FANOUT];
+        for (int d = 0; d < FANOUT; d += 1) {
+            if (!parts.get(d).isEmpty()) {
+                children[d] = build(store, parts.get(d), depth + 1)._id;
+            }
+        }
+        return new Tree(children, entries.size()).save(store);
+    }
+
+    /** Return the node in STORE obtained by applying CHANGES, as for the
+     *  static update, to this node, which is at depth DEPTH. */
+    private Tree update(ObjectStore store, int depth,
+                        Map<String, String> changes) {
+        if (_entries != null) {
+            TreeMap<String, String> entries = new TreeMap<>(_entries);
+            apply(entries, changes);
+            return build(store, entries, depth);
+        }
+
+        List<Map<String, String>> parts = new ArrayList<>(FANOUT);
+        for (int d = 0; d < FANOUT; d += 1) {
+            parts.add(null);
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            int d = digit(change.getKey(), depth);
+            if (parts.get(d) == null) {
+                parts.set(d, new HashMap<>());
+            }
+            parts.get(d).put(change.getKey(), change.getValue());
+        }
+
+        String[] children = _children.clone();
+        int count = _count;
+        for (int d = 0; d < FANOUT; d += 1) {
+            if (parts.get(d) == null) {
+                continue;
+            }
+            Tree child = load(store, children[d]);
+            Tree updated = child.update(store, depth + 1, parts.get(d));
+            count += updated._count - child._count;
+            children[d] = updated._count == 0 ? null : updated._id;
+        }
+
+        Tree result = new Tree(children, count);
+        if (count <= MAX_LEAF) {
+            HashMap<String, String> entries = new HashMap<>();
+            result.collect(store, entries);
+            return new Tree(new TreeMap<>(entries)).save(store);
+        }
+        return result.save(store);
+    }
+
+    /** Apply CHANGES, as for the static update, to ENTRIES. */
+    private static void apply(Map<String, String> entries,
+                              Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                entries.remove(change.getKey());
+            } else {
+                entries.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /** Add all entries at or below this node, whose descendants are in
+     *  STORE, to RESULT. */
+    private void collect(ObjectStore store, Map<String, String> result) {
+        if (_entries != null) {
+            result.putAll(_entries);
+            return;
+        }
+        for (String child : _children) {
+            if (child != null) {
+                load(store, child).collect(store, result);
+            }
+        }
+    }
+
+    /** Return ENTRIES divided among FANOUT maps by the digits of their
+     *  names' hashes at depth DEPTH. */
+    private static List<TreeMap<String, String>> split(
+        TreeMap<String, String> entries, int depth) {
+        List<TreeMap<String, String>> parts = new ArrayList<>(FANOUT);
+        for (int d = 0; d < FANOUT; d += 1) {
+            parts.add(new TreeMap<>());
+        }
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            parts.get(digit(entry.getKey(), depth))
+                .put(entry.getKey(), entry.getValue());
+        }
+        return parts;
+    }
+
+    /** Return the digit of the hash of NAME that selects the child of a
+     *  node at depth DEPTH.  String.hashCode is specified exactly, so this
+     *  is the same in every gitlet; the mixing step (from MurmurHash3)
+     *  spreads names that differ only in their last characters. */
+    private static int digit(String name, int depth) {
+        int h = name.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h >>> (32 - DIGIT_BITS * (depth + 1))) & (FANOUT - 1);
+    }
+
+    /** Write this node to STORE, unless it is there already, and set its
+     *  id.  Returns this node. */
+    private Tree save(ObjectStore store) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            if (_entries != null) {
+                out.writeByte(LEAF);
+                writeEntries(out, _entries);
+            } else {
+                out.writeByte(INNER);
+                Utils.writeVarint(out, _count);
+                int present = 0;
+                for (int d = 0; d < FANOUT; d += 1) {
+                    if (_children[d] != null) {
+                        present |= 1 << d;
+                    }
+                }
+                out.writeShort(present);
+                for (String child : _children) {
+                    if (child != null) {
+                        out.write(Utils.fromHex(child));
+                    }
+                }
+            }
+            out.close();
+            byte[] contents = bytes.toByteArray();
+            _id = Utils.sha1(contents);
+            store.write(_id, contents);
+            return this;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the node with id ID in STORE, or an empty leaf if ID is
+     *  null. */
+    private static Tree load(ObjectStore store, String id) {
+        if (id == null) {
+            return new Tree(new TreeMap<>());
+        }
+        try {
+            ByteBuffer in = store.buffer(id);
+            byte[] magic = new byte[MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IllegalArgumentException("bad tree " + id);
+            }
+            Tree result;
+            if (in.get() == LEAF) {
+                TreeMap<String, String> entries = new TreeMap<>();
+                readEntries(in, entries);
+                result = new Tree(entries);
+            } else {
+                int count = Utils.readVarint(in);
+                int present = in.getShort() & 0xffff;
+                String[] children = new String[FANOUT];
+                byte[] child = new byte[ObjectStore.ID_LENGTH];
+                for (int d = 0; d < FANOUT; d += 1) {
+                    if ((present & (1 << d)) != 0) {
+                        in.get(child);
+                        children[d] = Utils.toHex(child);
+                    }
+                }
+                result = new Tree(children, count);
+            }
+            result._id = id;
+            return result;
+        } catch (BufferUnderflowException excp) {
+            throw new IllegalArgumentException("truncated tree " + id);
+        }
+    }
+
+    /** Node type bytes. */
+    private static final byte LEAF = 0, INNER = 1;
+
+    /** Id of this node, once saved or loaded. */
+    private String _id;
+    /** Entries of a leaf, or null for an inner node. */
+    private TreeMap<String, String> _entries;
+    /** Ids of the children of an inner node, null where a child would be
+     *  empty, or null for a leaf. */
+    private String[] _children;
+    /** Number of entries at or below this node. */
+    private final int _count;
+
+}
@@ -4,6 +4,22 @@ import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
 /** The suite of all JUnit tests for the gitlet package.
  *  @author
  */
@@ -20,6 +36,635 @@ public class UnitTest {
     public void placeholderTest() {
     }
 
+    /** Merge bases of commits on one line of history, and of a commit
+     *  with itself. */
+    @Test
+    public void linearMergeBaseTest() {
+        History h = new History("r", "a:r", "b:a", "c:b");
+        assertEquals(List.of("b"), h.mergeBases("b", "c"));
+        assertEquals(List.of("b"), h.mergeBases("c", "b"));
+        assertEquals(List.of("c"), h.mergeBases("c", "c"));
+        assertEquals(List.of("r"), h.mergeBases("r", "c"));
+    }
+
+    /** The merge base of two branches forked from a common commit. */
+    @Test
+    public void forkMergeBaseTest() {
+        History h = new History("r", "a:r", "b1:a", "b2:b1", "m1:a",
+                                "m2:m1", "m3:m2");
+        assertEquals(List.of("a"), h.mergeBases("m3", "b2"));
+        assertEquals(List.of("a"), h.mergeBases("b2", "m3"));
+    }
+
+    /** A merge base found only through the history of a merged-in parent,
+     *  which walking first parents alone misses. */
+    @Test
+    public void mergedParentMergeBaseTest() {
+        History h = new History("r", "m1:r", "b1:r", "b2:b1", "m2:m1+b2",
+                                "c1:b1");
+        assertEquals(List.of("b1"), h.mergeBases("m2", "c1"));
+        assertEquals(List.of("b2"), h.mergeBases("m2", "b2"));
+    }
+
+    /** Criss-cross histories, where each branch has merged the other, have
+     *  two merge bases, neither an ancestor of the other. */
+    @Test
+    public void crissCrossMergeBaseTest() {
+        History h = new History("r", "a1:r", "b1:r", "a2:a1+b1",
+                                "b2:b1+a1", "a3:a2", "b3:b2");
+        List<String> bases = h.mergeBases("a3", "b3");
+        assertEquals(2, bases.size());
+        assertTrue(bases.containsAll(Arrays.asList("a1", "b1")));
+        assertEquals(bases, h.mergeBases("b3", "a3"));
+    }
+
+    /** A criss-cross below a later common merge leaves only the later
+     *  one. */
+    @Test
+    public void crissCrossResolvedMergeBaseTest() {
+        History h = new History("r", "a1:r", "b1:r", "a2:a1+b1",
+                                "b2:b1+a1", "c:a2+b2", "a3:c", "b3:c",
+                                "b4:b3");
+        assertEquals(List.of("c"), h.mergeBases("a3", "b4"));
+    }
+
+    /** Literals required by regular expressions, taken only from plain
+     *  runs outside groups, classes and escapes. */
+    @Test
+    public void literalsTest() {
+        assertEquals(List.of("fix", "parser"),
+                     MessageIndex.literals("fix.*parser"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[xyz]ylophone"));
+        assertEquals(List.of("colo"), MessageIndex.literals("colou?r"));
+        assertEquals(List.of(), MessageIndex.literals("fix|bug"));
+        assertEquals(List.of("end"), MessageIndex.literals("(ab)+end"));
+    }
+
+    /** The arguments of an escape are not literals of their own. */
+    @Test
+    public void literalsAfterEscapeTest() {
+        assertEquals(List.of("bcdef"), MessageIndex.literals("\\x41bcdef"));
+        assertEquals(List.of("bcd"), MessageIndex.literals("\\cAbcd"));
+        assertEquals(List.of("bcd"), MessageIndex.literals("\\u0041bcd"));
+        assertEquals(List.of("bcd"), MessageIndex.literals("\\0101bcd"));
+        assertEquals(List.of("bcd"), MessageIndex.literals("\\x{41}bcd"));
+        assertEquals(List.of("bcd"),
+                     MessageIndex.literals("\\p{Lu}bcd"));
+        assertEquals(List.of("fix", "bug"),
+                     MessageIndex.literals("fix\\.bug"));
+        assertEquals(List.of("bcd"),
+                     MessageIndex.literals("(a)\\1123bcd"));
+        assertEquals(List.of(), MessageIndex.literals("\\Qabc\\E"));
+        assertEquals(List.of(), MessageIndex.literals("abc\\jdef"));
+    }
+
+    /** Closing brackets of other kinds inside a character class are
+     *  members of the class, and do not end it. */
+    @Test
+    public void literalsInClassTest() {
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[)xyz]ylophone"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[}(xyz]ylophone"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[]xyz]ylophone"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[^]xyz]ylophone"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[\\]xyz]ylophone"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[a-z&&[^xyz]]ylophone"));
+        assertEquals(List.of(), MessageIndex.literals("[xyz"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[\\c]xyz]ylophone"));
+        assertEquals(List.of("ylophone"),
+                     MessageIndex.literals("[\\x5d]ylophone"));
+    }
+
+    /** Records put in a sorted index are found before and after its log
+     *  is folded, with later puts replacing earlier ones, and are scanned
+     *  in order of key. */
+    @Test
+    public void sortedIndexTest() {
+        File dir = tempDir();
+        try {
+            File base = new File(dir, "idx");
+            SortedIndex index = new SortedIndex(base, 4, 4, 1, 4);
+            for (int k : new int[] { 5, 3, 9, 1 }) {
+                index.put(bytes(k), bytes(10 * k));
+            }
+            assertFalse(new File(dir, "idx.log").exists());
+            index.put(bytes(3), bytes(33));
+            index.put(bytes(7), bytes(70));
+            assertNull(index.get(bytes(4)));
+            assertArrayEquals(bytes(33), index.get(bytes(3)));
+            assertArrayEquals(bytes(90), index.get(bytes(9)));
+            assertEquals(5, index.size());
+            index.close();
+
+            index = new SortedIndex(base, 4, 4, 1, 4);
+            List<Integer> keys = new ArrayList<>(), values = new ArrayList<>();
+            index.scan((key, value) -> {
+                keys.add(ByteBuffer.wrap(key).getInt());
+                values.add(ByteBuffer.wrap(value).getInt());
+            });
+            assertEquals(List.of(1, 3, 5, 7, 9), keys);
+            assertEquals(List.of(10, 33, 50, 70, 90), values);
+            index.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** A partial record left at the end of a log by a crash is cut off
+     *  before the next put, so records put after it are still read. */
+    @Test
+    public void tornLogTest() {
+        File dir = tempDir();
+        try {
+            File base = new File(dir, "idx");
+            SortedIndex index = new SortedIndex(base, 4, 4, 1);
+            index.put(bytes(1), bytes(10));
+            index.put(bytes(2), bytes(20));
+            index.close();
+            Files.write(new File(dir, "idx.log").toPath(), new byte[3],
+                        StandardOpenOption.APPEND);
+            index = new SortedIndex(base, 4, 4, 1);
+            index.put(bytes(3), bytes(30));
+            index.close();
+            index = new SortedIndex(base, 4, 4, 1);
+            assertArrayEquals(bytes(10), index.get(bytes(1)));
+            assertArrayEquals(bytes(20), index.get(bytes(2)));
+            assertArrayEquals(bytes(30), index.get(bytes(3)));
+            assertEquals(3, index.size());
+            index.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Objects read back from a store as they were written, whether or
+     *  not compressing them helped, and text takes less room in the
+     *  pack than it did. */
+    @Test
+    public void compressedStoreTest() {
+        File dir = tempDir();
+        try {
+            byte[] text = "all work and no play\n".repeat(2000).getBytes();
+            byte[] noise = new byte[20000];
+            new Random(1).nextBytes(noise);
+            ObjectStore store = new ObjectStore(dir);
+            store.write(Utils.sha1(text), text);
+            store.write(Utils.sha1(noise), noise);
+            store.close();
+            assertTrue(new File(dir, "pack").length()
+                       < noise.length + text.length / 10);
+
+            store = new ObjectStore(dir);
+            assertArrayEquals(text, store.read(Utils.sha1(text)));
+            assertArrayEquals(noise, store.read(Utils.sha1(noise)));
+            assertArrayEquals(text, bytesOf(store.buffer(Utils.sha1(text))));
+            store.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** A delta applied to its base gives back the target, whatever lines
+     *  were inserted, deleted or changed, and at either end. */
+    @Test
+    public void deltaTest() {
+        String base = numberedLines(0, 200);
+        String[] targets = {
+            base.replace("line 100\n", "line one hundred\n"),
+            base.replace("line 50\n", ""),
+            base.replace("line 7\n", "line 7\nline 7.5\n"),
+            "a new first line\n" + base,
+            base + "no newline at the end",
+            base.replace("line 10\n", "").replace("line 190\n", "x\r\n"),
+            numberedLines(0, 150) + numberedLines(160, 200),
+        };
+        for (String target : targets) {
+            byte[] delta = Delta.encode(base.getBytes(), target.getBytes());
+            assertNotNull(delta);
+            assertEquals(target,
+                         new String(Delta.apply(base.getBytes(), delta)));
+        }
+    }
+
+    /** No delta is made from or to binary contents, or when the target
+     *  differs too much from the base for one to be much smaller. */
+    @Test
+    public void deltaRefusedTest() {
+        byte[] base = numberedLines(0, 200).getBytes();
+        byte[] binary = base.clone();
+        binary[5] = 0;
+        assertNull(Delta.encode(base, binary));
+        assertNull(Delta.encode(binary, base));
+        assertNull(Delta.encode(base, numberedLines(1000, 1200).getBytes()));
+    }
+
+    /** A new version stored as a delta against an earlier one reads back
+     *  whole, and takes much less room than the version itself. */
+    @Test
+    public void deltaStoreTest() {
+        File dir = tempDir();
+        try {
+            byte[] base = numberedLines(0, 2000).getBytes();
+            byte[] target = numberedLines(0, 2000)
+                .replace("line 1000\n", "line 1000, changed\n").getBytes();
+            ObjectStore store = new ObjectStore(dir);
+            store.write(Utils.sha1(base), base);
+            store.close();
+            long before = new File(dir, "pack").length();
+            store = new ObjectStore(dir);
+            store.write(Utils.sha1(target), target, Utils.sha1(base));
+            store.close();
+            assertTrue(new File(dir, "pack").length() - before < 200);
+
+            store = new ObjectStore(dir);
+            assertArrayEquals(target, store.read(Utils.sha1(target)));
+            assertArrayEquals(base, store.read(Utils.sha1(base)));
+            store.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Chunks put back together give the input, each is between
+     *  MIN_SIZE and MAX_SIZE bytes but the last, and the same input is
+     *  always cut in the same places. */
+    @Test
+    public void chunkerTest() throws IOException {
+        byte[] data = new byte[3 << 20];
+        new Random(2).nextBytes(data);
+        List<byte[]> chunks = chunks(data);
+        assertTrue(chunks.size() > 1);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int k = 0; k < chunks.size(); k += 1) {
+            int n = chunks.get(k).length;
+            assertTrue(n <= Chunker.MAX_SIZE);
+            assertTrue(n >= Chunker.MIN_SIZE || k == chunks.size() - 1);
+            joined.write(chunks.get(k));
+        }
+        assertArrayEquals(data, joined.toByteArray());
+        assertEquals(chunkIds(chunks), chunkIds(chunks(data)));
+    }
+
+    /** Cut points depend on content rather than position, so inserting
+     *  bytes near the start of the input leaves later chunks as they
+     *  were. */
+    @Test
+    public void chunkerResyncTest() throws IOException {
+        byte[] data = new byte[3 << 20];
+        new Random(3).nextBytes(data);
+        byte[] edited = new byte[data.length + 100];
+        System.arraycopy(data, 0, edited, 0, 1000);
+        System.arraycopy(data, 1000, edited, 1100, data.length - 1000);
+        List<String> before = chunkIds(chunks(data));
+        List<String> after = chunkIds(chunks(edited));
+        List<String> lost = new ArrayList<>(before);
+        lost.removeAll(after);
+        assertTrue(lost.size() <= 2);
+        assertEquals(before.subList(2, before.size()),
+                     after.subList(after.size() - before.size() + 2,
+                                   after.size()));
+    }
+
+    /** A full cache evicts its least recently used entries, counting
+     *  each entry at the size charged for it, and never caches an entry
+     *  larger than its capacity. */
+    @Test
+    public void objectCacheTest() {
+        ObjectCache<String> cache = new ObjectCache<>(100);
+        cache.put("a", "A", 40);
+        cache.put("b", "B", 40);
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C", 40);
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(80, cache.size());
+        assertEquals(1, cache.evictions());
+
+        cache.put("a", "A2", 10);
+        assertEquals(50, cache.size());
+        cache.put("d", "D", 60);
+        assertEquals("A2", cache.get("a"));
+        assertNull(cache.get("c"));
+        assertEquals(70, cache.size());
+
+        cache.put("e", "E", 101);
+        assertNull(cache.get("e"));
+        assertEquals(70, cache.size());
+        assertEquals(4, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    /** A range of keys is found across the sorted file and the log, in
+     *  order, and cut off after the limit. */
+    @Test
+    public void sortedIndexRangeTest() {
+        File dir = tempDir();
+        try {
+            SortedIndex index = new SortedIndex(new File(dir, "idx"), 4, 4,
+                                                1, 8);
+            for (int k = 0; k < 100; k += 3) {
+                index.put(bytes(k), bytes(k));
+            }
+            index.put(bytes(31), bytes(31));
+            List<Integer> keys = new ArrayList<>();
+            for (byte[] key : index.range(bytes(25), bytes(40), 100)) {
+                keys.add(ByteBuffer.wrap(key).getInt());
+            }
+            assertEquals(List.of(27, 30, 31, 33, 36, 39), keys);
+            assertEquals(2, index.range(bytes(25), bytes(40), 2).size());
+            assertEquals(0, index.range(bytes(1000), bytes(2000), 2).size());
+            index.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Abbreviated ids name every object, packed or loose, whose id they
+     *  start, in order and up to a limit, so that an ambiguous one can be
+     *  told from a unique one. */
+    @Test
+    public void idsWithPrefixTest() {
+        File dir = tempDir();
+        try {
+            ObjectStore store = new ObjectStore(dir);
+            TreeSet<String> ids = new TreeSet<>();
+            for (int i = 0; i < 600; i += 1) {
+                byte[] contents = ("object " + i).getBytes();
+                store.write(Utils.sha1(contents), contents);
+                ids.add(Utils.sha1(contents));
+            }
+            String loose = "ab" + "0".repeat(38);
+            File looseFile = Utils.join(dir, "ab", "0".repeat(38));
+            looseFile.getParentFile().mkdirs();
+            Utils.writeContents(looseFile, "loose");
+            ids.add(loose);
+
+            List<String> all = new ArrayList<>(ids.subSet("ab", "ac"));
+            assertTrue(all.size() > 2);
+            assertEquals(all, store.idsWithPrefix("ab", 1000));
+            assertEquals(all.subList(0, 2), store.idsWithPrefix("ab", 2));
+            assertEquals(all.subList(0, 2), store.idsWithPrefix("AB", 2));
+            assertEquals(List.of(loose), store.idsWithPrefix("ab000", 2));
+
+            String id = ids.first();
+            assertEquals(List.of(id), store.idsWithPrefix(id, 2));
+            assertEquals(List.of(id),
+                         store.idsWithPrefix(id.substring(0, 12), 2));
+            assertEquals(List.of(), store.idsWithPrefix("xyz", 2));
+            assertEquals(List.of(), store.idsWithPrefix(id + "0", 2));
+            store.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** An entry for a file modified no earlier than the cache was saved
+     *  is not trusted, since a change within the same tick would not
+     *  show, while an older one is. */
+    @Test
+    public void statCacheRacyTest() throws IOException {
+        File dir = tempDir();
+        try {
+            File index = new File(dir, "index");
+            File racy = new File(dir, "racy"), old = new File(dir, "old");
+            FileTime future = FileTime.fromMillis(System.currentTimeMillis()
+                                                  + 60000);
+            FileTime past = FileTime.fromMillis(System.currentTimeMillis()
+                                                - 60000);
+            writeWithTime(racy, "hello", future);
+            writeWithTime(old, "hello", past);
+            StatCache cache = new StatCache(index);
+            cache.blobId("racy", racy);
+            cache.blobId("old", old);
+            cache.save();
+
+            writeWithTime(racy, "jello", future);
+            writeWithTime(old, "jello", past);
+            cache = new StatCache(index);
+            assertEquals(Utils.sha1File(racy), cache.blobId("racy", racy));
+            assertEquals(Utils.sha1("hello".getBytes()),
+                         cache.blobId("old", old));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** A racily clean entry that is not hashed again is dropped when the
+     *  cache is saved, so that it cannot pass for clean against a cache
+     *  file written later. */
+    @Test
+    public void statCacheRacyDroppedTest() throws IOException {
+        File dir = tempDir();
+        try {
+            File index = new File(dir, "index");
+            File racy = new File(dir, "racy"), other = new File(dir, "other");
+            FileTime future = FileTime.fromMillis(System.currentTimeMillis()
+                                                  + 60000);
+            writeWithTime(racy, "hello", future);
+            writeWithTime(other, "other", future);
+            StatCache cache = new StatCache(index);
+            cache.blobId("racy", racy);
+            cache.save();
+
+            cache = new StatCache(index);
+            cache.blobId("other", other);
+            cache.save();
+
+            Files.setLastModifiedTime(index.toPath(), FileTime.fromMillis(
+                future.toMillis() + 60000));
+            writeWithTime(racy, "jello", future);
+            cache = new StatCache(index);
+            assertEquals(Utils.sha1File(racy), cache.blobId("racy", racy));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Check that a read-only graph keeps the commits added to it in
+     *  memory, after those in its file, and leaves the file alone. */
+    @Test
+    public void readOnlyGraphTest() throws IOException {
+        File dir = tempDir();
+        try {
+            File file = new File(dir, "commit-graph");
+            CommitGraph graph = new CommitGraph(file);
+            graph.add(Utils.sha1("a"), CommitGraph.NONE, CommitGraph.NONE, 0);
+            graph.add(Utils.sha1("b"), 0, CommitGraph.NONE, 1000);
+            graph.close();
+            byte[] stored = Files.readAllBytes(file.toPath());
+
+            graph = new CommitGraph(file, true);
+            int c = graph.add(Utils.sha1("c"), 1, CommitGraph.NONE, 2000);
+            assertEquals(2, c);
+            assertEquals(c, graph.position(Utils.sha1("c")));
+            assertEquals(1, graph.parent(c));
+            assertEquals(3, graph.generation(c));
+            assertEquals(Utils.sha1("c"), graph.id(c));
+            assertEquals(List.of(1), graph.mergeBases(c, 1));
+            graph.close();
+            assertArrayEquals(stored, Files.readAllBytes(file.toPath()));
+
+            graph = new CommitGraph(file, true);
+            assertEquals(2, graph.size());
+            assertEquals(CommitGraph.NONE, graph.position(Utils.sha1("c")));
+            graph.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Check that a message index is found only for the graph tag it was
+     *  built for, and holds the messages it was built from and those
+     *  added since. */
+    @Test
+    public void messageIndexTagTest() {
+        File dir = tempDir();
+        try {
+            assertNull(MessageIndex.open(dir, 1));
+            MessageIndex.build(dir, 1, List.of("initial commit", "fix bug"));
+            assertNull(MessageIndex.open(dir, 2));
+            MessageIndex index = MessageIndex.open(dir, 1);
+            assertTrue(index.exact("fix bug").get(1));
+            index.add(2, "fix another bug");
+            assertTrue(index.containing(List.of("another")).get(2));
+            index.close();
+
+            MessageIndex.build(dir, 2, List.of("initial commit"));
+            assertNull(MessageIndex.open(dir, 1));
+            index = MessageIndex.open(dir, 2);
+            assertTrue(index.exact("initial commit").get(0));
+            assertTrue(index.exact("fix bug").isEmpty());
+            index.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Write CONTENTS to FILE and set its modification time to TIME. */
+    private static void writeWithTime(File file, String contents,
+                                      FileTime time) throws IOException {
+        Files.writeString(file.toPath(), contents);
+        Files.setLastModifiedTime(file.toPath(), time);
+    }
+
+    /** Return the chunks a Chunker cuts DATA into. */
+    private static List<byte[]> chunks(byte[] data) throws IOException {
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+        List<byte[]> result = new ArrayList<>();
+        for (byte[] chunk = chunker.next(); chunk != null;
+             chunk = chunker.next()) {
+            result.add(chunk);
+        }
+        return result;
+    }
+
+    /** Return the ids of CHUNKS. */
+    private static List<String> chunkIds(List<byte[]> chunks) {
+        List<String> result = new ArrayList<>();
+        for (byte[] chunk : chunks) {
+            result.add(Utils.sha1(chunk));
+        }
+        return result;
+    }
+
+    /** Return lines "line FROM\n" to "line TO-1\n". */
+    private static String numberedLines(int from, int to) {
+        StringBuilder result = new StringBuilder();
+        for (int i = from; i < to; i += 1) {
+            result.append("line ").append(i).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return the remaining contents of BUF. */
+    private static byte[] bytesOf(ByteBuffer buf) {
+        byte[] result = new byte[buf.remaining()];
+        buf.get(result);
+        return result;
+    }
+
+    /** Return the four-byte big-endian encoding of N. */
+    private static byte[] bytes(int n) {
+        return ByteBuffer.allocate(4).putInt(n).array();
+    }
+
+    /** Return a new empty temporary directory. */
+    private static File tempDir() {
+        try {
+            return Files.createTempDirectory("gitlet-test").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Delete FILE and, if it is a directory, everything under it. */
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** A synthetic history whose commits are named rather than hashed. */
+    private static class History {
+
+        /** A history of COMMITS, each of the form NAME, NAME:PARENT or
+         *  NAME:PARENT+MERGEDPARENT, with parents listed before their
+         *  children. */
+        History(String... commits) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-test").toFile();
+                dir.deleteOnExit();
+                for (String name : new String[] { "commit-graph",
+                        "commit-graph.pos.idx", "commit-graph.pos.log" }) {
+                    new File(dir, name).deleteOnExit();
+                }
+                _graph = new CommitGraph(new File(dir, "commit-graph"));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            long time = 0;
+            for (String commit : commits) {
+                String[] parts = commit.split("[:+]");
+                int parent = parts.length > 1 ? _positions.get(parts[1])
+                    : CommitGraph.NONE;
+                int merged = parts.length > 2 ? _positions.get(parts[2])
+                    : CommitGraph.NONE;
+                int pos = _graph.add(Utils.sha1(parts[0]), parent, merged,
+                                     time);
+                _positions.put(parts[0], pos);
+                _names.put(pos, parts[0]);
+                time += 1000;
+            }
+        }
+
+        /** Return the names of the merge bases of commits A and B. */
+        List<String> mergeBases(String a, String b) {
+            return _graph.mergeBases(_positions.get(a), _positions.get(b))
+                .stream().map(_names::get).toList();
+        }
+
+        /** The graph holding the history. */
+        private final CommitGraph _graph;
+        /** Positions of commits by name, and the reverse. */
+        private final Map<String, Integer> _positions = new HashMap<>();
+        /** Names of commits by position. */
+        private final Map<Integer, String> _names = new HashMap<>();
+    }
+
 }
 
 
@@ -4,15 +4,19 @@ package gitlet;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -34,33 +38,148 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        }
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, which are read in
+     *  fixed-size pieces rather than all at once.  FILE must be a normal
+     *  file.  Throws IllegalArgumentException in case of problems. */
+    static String sha1File(File file) {
+        MessageDigest md = sha1Digest();
+        byte[] buffer = new byte[FILE_BUFFER];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
             }
-            return result.toString();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Size of the buffer used to read files in pieces. */
+    private static final int FILE_BUFFER = 1 << 16;
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("bad hex digit in " + hex);
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Hexadecimal digits, indexed by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /* JSON */
+
+    /** Returns S as a JSON string literal, with quotes, backslashes and
+     *  control characters escaped. */
+    static String jsonString(String s) {
+        StringBuilder result = new StringBuilder(s.length() + 2);
+        result.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                result.append("\\\"");
+                break;
+            case '\\':
+                result.append("\\\\");
+                break;
+            case '\n':
+                result.append("\\n");
+                break;
+            case '\t':
+                result.append("\\t");
+                break;
+            case '\r':
+                result.append("\\r");
+                break;
+            default:
+                if (c < 0x20) {
+                    result.append(String.format("\\u%04x", (int) c));
+                } else {
+                    result.append(c);
+                }
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /* VARIABLE-LENGTH INTEGERS */
+
+    /** Write the non-negative N to OUT as a varint: seven bits per byte,
+     *  low-order bits first, with the top bit set on all but the last
+     *  byte. */
+    static void writeVarint(DataOutput out, int n) throws IOException {
+        while ((n & ~0x7f) != 0) {
+            out.writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    /** Return a varint written by writeVarint, read from the current
+     *  position of BUF. */
+    static int readVarint(ByteBuffer buf) {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buf.get() & 0xff;
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -134,22 +253,75 @@ class Utils {
         }
     }
 
+    /** Write the result of concatenating the bytes in CONTENTS to FILE as
+     *  writeContents does, but by writing them to FILE.tmp and renaming that
+     *  over FILE, so that FILE always holds either all of its old contents
+     *  or all of its new ones.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static void writeContentsAtomically(File file, Object... contents) {
+        File tmp = new File(file.getPath() + ".tmp");
+        writeContents(tmp, contents);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
+            return readObject(new FileInputStream(file), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from the stream IN, casting it to
+     *  EXPECTEDCLASS, and close IN.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T readObject(InputStream in,
+                                                 Class<T> expectedClass) {
+        try (ObjectInputStream objectIn = new ObjectInputStream(in)) {
+            return expectedClass.cast(objectIn.readObject());
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Return a stream delivering the remaining bytes of BUF, advancing
+     *  BUF's position as they are read. */
+    static InputStream inputStream(ByteBuffer buf) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buf.hasRemaining() ? buf.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                } else if (!buf.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, buf.remaining());
+                buf.get(b, off, len);
+                return len;
+            }
+
+            @Override
+            public int available() {
+                return buf.remaining();
+            }
+        };
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -0,0 +1,363 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A journal of the names of files changed in a working directory DIR,
+ *  kept in the file FILE by a watcher process for as long as it runs, so
+ *  that other commands can ask which files may have changed since they
+ *  last looked, and trust what they knew of the rest.
+ *
+ *  The watcher holds a lock on FILE.lock while it runs; a journal whose
+ *  lock is free is not being kept, and says nothing.  FILE starts with a
+ *  magic number, a version and a random session number, which the watcher
+ *  chooses anew each time it starts the file.  The watch is registered
+ *  before a session begins, so that every change made during a session is
+ *  recorded in it.  Each record is a file name as a varint length and
+ *  UTF-8 bytes, appended with one write per batch of events.  An empty
+ *  name records that the watch service lost events, and so that any file
+ *  may have changed.
+ *
+ *  Events reach the watcher some time after the changes they report, so
+ *  a journal read at once may not yet name a file just changed.  As with
+ *  git's fsmonitor cookies, a reader first makes a file whose name starts
+ *  with COOKIE_PREFIX in the directory holding FILE, which the watcher
+ *  also watches, and waits until the journal records it, as that name
+ *  after COOKIE_MARK.  The watcher records every change to DIR that its
+ *  watch service reported before the cookie ahead of it, so once the
+ *  cookie is in the journal, so is every change made before the reader
+ *  began.  A reader that does not see its cookie within SYNC_TIMEOUT
+ *  milliseconds trusts nothing.  Polling watch services, which notice
+ *  changes late and in no particular order, and miss those within their
+ *  timestamp resolution, are not used at all.
+ *
+ *  A point in the journal, or token, is a session and an offset in FILE.
+ *  Readers ask for the names recorded since a token they got earlier, and
+ *  get a new token for the end of what they read.
+ *  @author
+ */
+class WatchJournal {
+
+    /** Magic number at the start of the file. */
+    static final int MAGIC = 0x474c574a;
+    /** Format version of the file. */
+    static final int VERSION = 2;
+    /** Size of the header, in bytes. */
+    static final int HEADER_SIZE = 16;
+    /** The session of a token that marks no point in any journal. */
+    static final long NO_SESSION = 0;
+    /** Start of the names of cookie files. */
+    static final String COOKIE_PREFIX = "fsmonitor-cookie-";
+    /** Start of the records of cookies, which no file name contains. */
+    static final String COOKIE_MARK = "/";
+    /** Milliseconds a reader waits for its cookie to be recorded. */
+    static final long SYNC_TIMEOUT = 1000;
+
+    /** Return true iff this platform's watch service reports changes as
+     *  they happen, rather than by polling, so that a watcher can keep a
+     *  journal readers may trust. */
+    static boolean supported() {
+        try (WatchService service =
+             FileSystems.getDefault().newWatchService()) {
+            return !service.getClass().getSimpleName().startsWith("Polling");
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** The journal of changes in DIR, kept in FILE. */
+    WatchJournal(File dir, File file) {
+        _dir = dir;
+        _file = file;
+        _lockFile = new File(file.getPath() + ".lock");
+    }
+
+    /** Return the names of the files changed since the point at OFFSET in
+     *  session SESSION, or null if they cannot be known: if no watcher is
+     *  running, if it does not record this reader's cookie in time, if the
+     *  session has ended, or if events were lost.  In any case, session()
+     *  and end() give the token of the end of the journal as read, or
+     *  NO_SESSION if it was not read. */
+    Set<String> changedSince(long session, long offset) {
+        _session = NO_SESSION;
+        _end = 0;
+        if (!watched()) {
+            return null;
+        }
+        ByteBuffer data = sync();
+        if (data == null || data.remaining() < HEADER_SIZE || data.getInt() != MAGIC
+            || data.getInt() != VERSION) {
+            return null;
+        }
+        _session = data.getLong();
+        boolean usable = _session == session && offset >= HEADER_SIZE
+            && offset <= data.limit();
+        Set<String> result = new HashSet<>();
+        data.position(usable ? (int) offset : HEADER_SIZE);
+        _end = data.position();
+        while (data.hasRemaining()) {
+            try {
+                byte[] name = new byte[Utils.readVarint(data)];
+                data.get(name);
+                if (name.length == 0) {
+                    usable = false;
+                }
+                String fileName = new String(name, StandardCharsets.UTF_8);
+                if (!fileName.startsWith(COOKIE_MARK)) {
+                    result.add(fileName);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException
+                     | NegativeArraySizeException excp) {
+                break;
+            }
+            _end = data.position();
+        }
+        return usable ? result : null;
+    }
+
+    /** Return the session of the token from the last changedSince. */
+    long session() {
+        return _session;
+    }
+
+    /** Return the offset of the token from the last changedSince. */
+    long end() {
+        return _end;
+    }
+
+    /** Watch the directory and keep the journal until the directory goes
+     *  away or the process is killed.  Return false at once if another
+     *  watcher is already keeping it. */
+    boolean watch() {
+        try (FileChannel lockChannel =
+             FileChannel.open(_lockFile.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE);
+             WatchService service =
+             FileSystems.getDefault().newWatchService()) {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException excp) {
+                lock = null;
+            }
+            if (lock == null) {
+                return false;
+            }
+            WATCHING.add(canonical(_lockFile));
+            WatchKey dirKey =
+                _dir.toPath().register(service,
+                                       StandardWatchEventKinds.ENTRY_CREATE,
+                                       StandardWatchEventKinds.ENTRY_DELETE,
+                                       StandardWatchEventKinds.ENTRY_MODIFY);
+            _file.getParentFile().toPath()
+                .register(service, StandardWatchEventKinds.ENTRY_CREATE);
+            long size = startSession();
+            while (true) {
+                WatchKey key = service.take();
+                Set<String> names = new LinkedHashSet<>();
+                if (key != dirKey) {
+                    addNames(dirKey.pollEvents(), "", names);
+                }
+                addNames(key.pollEvents(),
+                         key == dirKey ? "" : COOKIE_PREFIX, names);
+                size += append(names);
+                if (!key.reset()) {
+                    return true;
+                }
+                if (size > SESSION_LIMIT) {
+                    size = startSession();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            return true;
+        } finally {
+            WATCHING.remove(canonical(_lockFile));
+        }
+    }
+
+    /** Add to NAMES the names of the files in EVENTS that start with
+     *  PREFIX, those of cookies after COOKIE_MARK, and an empty name if
+     *  events were lost. */
+    private static void addNames(List<WatchEvent<?>> events, String prefix,
+                                 Set<String> names) {
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                names.add("");
+                continue;
+            }
+            String name = event.context().toString();
+            if (name.startsWith(prefix)) {
+                names.add(prefix.isEmpty() ? name : COOKIE_MARK + name);
+            }
+        }
+    }
+
+    /** Make a cookie and wait for the watcher to record it.  Return the
+     *  journal as it is once it holds the cookie's record, or null if it
+     *  does not within SYNC_TIMEOUT.  The cookie is removed again. */
+    private ByteBuffer sync() {
+        String name = COOKIE_PREFIX + ProcessHandle.current().pid() + "-"
+            + Long.toHexString(new Random().nextLong());
+        File cookie = new File(_file.getParentFile(), name);
+        byte[] record = record(COOKIE_MARK + name);
+        long deadline = System.nanoTime() + SYNC_TIMEOUT * 1_000_000;
+        try {
+            if (!cookie.createNewFile()) {
+                return null;
+            }
+            long size = -1;
+            while (System.nanoTime() < deadline) {
+                if (Files.size(_file.toPath()) != size) {
+                    byte[] data = Files.readAllBytes(_file.toPath());
+                    size = data.length;
+                    if (contains(data, record)) {
+                        return ByteBuffer.wrap(data);
+                    }
+                }
+                Thread.sleep(1);
+            }
+            return null;
+        } catch (IOException | InterruptedException excp) {
+            return null;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** Return the journal record of NAME. */
+    private static byte[] record(String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            Utils.writeVarint(out, utf8.length);
+            out.write(utf8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return true iff DATA contains the bytes of RECORD, starting after
+     *  the header. */
+    private static boolean contains(byte[] data, byte[] record) {
+        for (int i = HEADER_SIZE; i + record.length <= data.length; i += 1) {
+            if (Arrays.equals(data, i, i + record.length,
+                              record, 0, record.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff a watcher is keeping this journal.  When that
+     *  watcher is in this process, the lock file is not touched: closing
+     *  a channel on it would release the watcher's lock. */
+    private boolean watched() {
+        if (!_lockFile.isFile()) {
+            return false;
+        }
+        if (WATCHING.contains(canonical(_lockFile))) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(_lockFile.toPath(),
+                                                    StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException excp) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return the canonical path of FILE. */
+    private static String canonical(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException excp) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /** Replace the journal with an empty one for a new session, and return
+     *  its size. */
+    private long startSession() throws IOException {
+        long session = NO_SESSION;
+        while (session == NO_SESSION) {
+            session = new Random().nextLong();
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(session);
+        File tmp = new File(_file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), header.array());
+        Files.move(tmp.toPath(), _file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        return HEADER_SIZE;
+    }
+
+    /** Append records of NAMES to the journal in one write, and return
+     *  the number of bytes written. */
+    private long append(Set<String> names) throws IOException {
+        if (names.isEmpty()) {
+            return 0;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String name : names) {
+            bytes.write(record(name));
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        try (FileChannel channel =
+             FileChannel.open(_file.toPath(), StandardOpenOption.WRITE,
+                              StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        return bytes.size();
+    }
+
+    /** Size past which the watcher starts a new session rather than let
+     *  the journal grow.  Readers then look at every file once. */
+    private static final long SESSION_LIMIT = 1 << 20;
+
+    /** Lock files of the journals kept by watchers in this process. */
+    private static final Set<String> WATCHING = ConcurrentHashMap.newKeySet();
+
+    /** The directory watched. */
+    private final File _dir;
+    /** The journal file, and the file locked while it is kept. */
+    private final File _file, _lockFile;
+    /** Token of the end of the journal as last read. */
+    private long _session, _end;
+
+}
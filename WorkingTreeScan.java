@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+/** The changes in a working directory that are not in its staging area:
+ *  files whose contents differ from what would be committed, files that
+ *  would be committed but are gone, and files that are neither staged nor
+ *  tracked.  The names involved are split among the threads of the common
+ *  fork-join pool, and a file is hashed only if it is tracked or staged
+ *  and the stat cache cannot vouch for it.  Each file is looked at once,
+ *  by one of those threads, so the directory is listed without checking
+ *  which of its entries are plain files; entries that are not, such as
+ *  the .gitlet directory, count as absent.
+ *  @author
+ */
+class WorkingTreeScan {
+
+    /** How a file differs from what would be committed. */
+    enum Change {
+        /** Its contents differ from those tracked or staged. */
+        MODIFIED,
+        /** It is tracked or staged, but not in the working directory. */
+        DELETED,
+        /** It is in the working directory, but neither tracked nor staged
+         *  for addition. */
+        UNTRACKED;
+
+        /** Return the name of this change as status shows it. */
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** A scan of the plain files in DIR, whose blob ids are looked up in
+     *  CACHE, against TRACKED and STAGED, which map file names to blob ids
+     *  in the current commit and the staging area, and REMOVED, the names
+     *  of files staged for removal. */
+    WorkingTreeScan(File dir, StatCache cache, Map<String, String> tracked,
+                    Map<String, String> staged, Set<String> removed) {
+        _dir = dir;
+        _cache = cache;
+        _tracked = tracked;
+        _staged = staged;
+        _removed = removed;
+        String[] present = dir.list();
+        Arrays.parallelSort(present);
+        Set<String> missing = new HashSet<>();
+        for (Map<String, String> files : List.of(tracked, staged)) {
+            for (String name : files.keySet()) {
+                if (Arrays.binarySearch(present, name) < 0) {
+                    missing.add(name);
+                }
+            }
+        }
+        String[] absent = missing.toArray(new String[0]);
+        Arrays.sort(absent);
+        _names = new String[present.length + absent.length];
+        _present = new BitSet(_names.length);
+        for (int i = 0, p = 0, a = 0; i < _names.length; i += 1) {
+            if (a == absent.length
+                || p < present.length && present[p].compareTo(absent[a]) < 0) {
+                _present.set(i);
+                _names[i] = present[p];
+                p += 1;
+            } else {
+                _names[i] = absent[a];
+                a += 1;
+            }
+        }
+        _changes = new Change[_names.length];
+        ForkJoinPool.commonPool().invoke(new Scan(0, _names.length));
+    }
+
+    /** Call ACTION on the name and change of each changed file, in
+     *  order of name. */
+    void forEach(BiConsumer<String, Change> action) {
+        for (int i = 0; i < _names.length; i += 1) {
+            if (_changes[i] != null) {
+                action.accept(_names[i], _changes[i]);
+            }
+        }
+    }
+
+    /** Return how the file _names[I] has changed, or null if it has
+     *  not. */
+    private Change classify(int i) {
+        String name = _names[i];
+        String expected = _staged.get(name);
+        if (expected == null && !_removed.contains(name)) {
+            expected = _tracked.get(name);
+        }
+        if (expected == null) {
+            return _present.get(i) && new File(_dir, name).isFile()
+                ? Change.UNTRACKED : null;
+        }
+        if (!_present.get(i)) {
+            return Change.DELETED;
+        }
+        String actual = _cache.blobId(name, new File(_dir, name));
+        if (actual == null) {
+            return Change.DELETED;
+        }
+        return actual.equals(expected) ? null : Change.MODIFIED;
+    }
+
+    /** The task of classifying the names from LOW to HIGH, exclusive,
+     *  which splits in half until there are few enough to do directly. */
+    private class Scan extends RecursiveAction {
+        /** A task for _names[LOW .. HIGH-1]. */
+        Scan(int low, int high) {
+            _low = low;
+            _high = high;
+        }
+
+        @Override
+        protected void compute() {
+            if (_high - _low <= LEAF_SIZE) {
+                for (int i = _low; i < _high; i += 1) {
+                    _changes[i] = classify(i);
+                }
+            } else {
+                int mid = (_low + _high) >>> 1;
+                invokeAll(new Scan(_low, mid), new Scan(mid, _high));
+            }
+        }
+
+        /** Range of names classified. */
+        private final int _low, _high;
+
+        /** Serialization version, required of a RecursiveAction though
+         *  tasks are never serialized. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Largest number of names a task classifies itself. */
+    private static final int LEAF_SIZE = 256;
+
+    /** The working directory. */
+    private final File _dir;
+    /** Cache of the blob ids of its files. */
+    private final StatCache _cache;
+    /** Blob ids of files in the current commit and in the staging area. */
+    private final Map<String, String> _tracked, _staged;
+    /** Names of files staged for removal. */
+    private final Set<String> _removed;
+    /** Every name in _dir, _tracked or _staged, in order. */
+    private final String[] _names;
+    /** Indices in _names of the entries in _dir. */
+    private final BitSet _present;
+    /** How the file _names[i] has changed, or null. */
+    private final Change[] _changes;
+
+}